@@ -6,20 +6,61 @@ import simpledb.Aggregator.Op;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Any number of aggregates can be computed in one pass over the child,
+ * grouped by any number of columns; a single aggregate with at most one
+ * group-by column uses an {@link IntegerAggregator} or
+ * {@link StringAggregator}, anything else a {@link MultiAggregator}.
+ * <p/>
+ * Groups are kept in a hash table of at most memoryPages pages. When a grouped
+ * aggregate has more groups than that, the partial aggregates computed so far
+ * are written out to {@link SpillFile}s, partitioned on the hash of the group
+ * value, and a fresh table is started. Once the child is exhausted each
+ * partition is merged in turn. AVG is computed as SUM_COUNT partials that
+ * are merged with SC_AVG, and COUNT partials are merged with SUM. SUM_COUNT
+ * and SC_AVG themselves are always computed in memory.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of pages' worth of groups kept in memory.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    /**
+     * Number of partitions the partial aggregates are split into when spilling.
+     */
+    public static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Maximum number of times a partition is re-partitioned. Partitions that
+     * still have too many groups after that are merged in memory anyway.
+     */
+    public static final int MAX_DEPTH = 3;
+
     private TupleDesc td = null;
     private DbIterator child = null;
     private DbIterator it = null;
-    private Aggregator agg = null;
     private Aggregator.Op aop = null;
     private String gFieldName = null;
     private String aFieldName = null;
     private int afield, gfield;
+    // the fields and operators the aggregators read from the child
+    private int[] aggAfields, aggGfields;
+    private Aggregator.Op[] aops;
+    private String[] gFieldNames, aFieldNames;
+    private final int memoryPages;
+
+    /**
+     * Partitions of partial aggregates written by the first pass; kept until
+     * close() so that rewind() doesn't have to re-read the child.
+     */
+    private transient ArrayList<SpillFile> partitions;
+    private transient LinkedList<SpillFile> pending;
+    private transient LinkedList<Integer> pendingDepth;
+    private transient SpillFile current;
+    private transient boolean spilled;
 
     /**
      * Constructor.
@@ -35,10 +76,24 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
-        this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child       The DbIterator that is feeding us tuples.
+     * @param afield      The column over which we are computing an aggregate.
+     * @param gfield      The column over which we are grouping the result, or
+     *                    -1 if there is no grouping
+     * @param aop         The aggregation operator to use
+     * @param memoryPages The number of pages' worth of groups that may be held
+     *                    in memory at once
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop,
+                     int memoryPages) {
+        this(child, new int[]{afield}, gfield == Aggregator.NO_GROUPING ? new int[0]
+                : new int[]{gfield}, new Aggregator.Op[]{aop}, memoryPages);
         if (this.aop == Op.SC_AVG)
             if (this.gfield == Aggregator.NO_GROUPING)
                 this.afield = 0;
@@ -46,72 +101,76 @@ public class Aggregate extends Operator {
                 this.afield = 1;
                 this.gfield = 0;
             }
-        TupleDesc child_td = child.getTupleDesc();
-
-        if (child_td.getFieldType(afield) == Type.INT_TYPE) {
-            this.agg = new IntegerAggregator(gfield,
-                    gfield == Aggregator.NO_GROUPING ? null
-                            : child_td.getFieldType(gfield), afield, aop);
-        } else {
-            this.agg = new StringAggregator(gfield,
-                    gfield == Aggregator.NO_GROUPING ? null
-                            : child_td.getFieldType(gfield), afield, aop);
-        }
-
-        if (gfield == Aggregator.NO_GROUPING) {
-            int nFields = 1;
-            if (aop == Op.SUM_COUNT)
-                nFields = 2;
-            Type typeAr[] = new Type[nFields];
-            String fields[] = new String[nFields];
+    }
 
-            typeAr[0] = Type.INT_TYPE;//child_td.getFieldType(afield);
+    /**
+     * Constructor for several aggregates over the same grouping.
+     *
+     * @param child   The DbIterator that is feeding us tuples.
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aops    The aggregation operator of each aggregate
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+                     Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_PAGES);
+    }
 
-            if (aop == Op.SUM_COUNT) {
-                typeAr[1] = Type.INT_TYPE;
-                fields[1] = "";
-            }
+    /**
+     * Constructor for several aggregates over the same grouping.
+     *
+     * @param child       The DbIterator that is feeding us tuples.
+     * @param afields     The column of each aggregate.
+     * @param gfields     The columns over which we are grouping the result;
+     *                    empty if there is no grouping
+     * @param aops        The aggregation operator of each aggregate
+     * @param memoryPages The number of pages' worth of groups that may be held
+     *                    in memory at once
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields,
+                     Aggregator.Op[] aops, int memoryPages) {
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("memoryPages must be positive");
+        }
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
+        this.memoryPages = memoryPages;
+        this.aggAfields = afields.clone();
+        this.aggGfields = gfields.clone();
+        this.aops = aops.clone();
+        this.child = child;
+        this.afield = afields[0];
+        this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        this.aop = aops[0];
+        TupleDesc child_td = child.getTupleDesc();
 
-//	    if (aop == Op.SC_AVG) {
-//		fields[0] = nameOfAggregatorOp(Op.SC_AVG) + "("
-//		        + child_td.getFieldName(afield) + ")";
-//
-//	    } else
-            fields[0] = nameOfAggregatorOp(aop) + "("
-                    + child_td.getFieldName(afield) + ")";
-            aFieldName = fields[0];
-
-            td = new TupleDesc(typeAr, fields);
-        } else {
-            int nFields = 2;
-            if (aop == Op.SUM_COUNT)
-                nFields = 3;
-
-            Type typeAr[] = new Type[nFields];
-            String fields[] = new String[nFields];
-
-            typeAr[0] = child_td.getFieldType(gfield);
-            typeAr[1] = Type.INT_TYPE;//child_td.getFieldType(afield);
-            fields[0] = child_td.getFieldName(gfield);
-            gFieldName = fields[0];
-
-//	    if (aop == Op.SC_AVG) {
-//		fields[1] = nameOfAggregatorOp(Op.SC_AVG) + "("
-//		        + child_td.getFieldName(afield) + ")";
-//
-//	    } else
-            fields[1] = nameOfAggregatorOp(aop) + "("
-                    + child_td.getFieldName(afield) + ")";
-
-            if (aop == Op.SUM_COUNT) {
-                typeAr[2] = Type.INT_TYPE;
-                fields[2] = "";
+        // the group-by fields, then each aggregate; SUM_COUNT has an extra
+        // unnamed count field
+        ArrayList<Type> types = new ArrayList<Type>();
+        ArrayList<String> names = new ArrayList<String>();
+        gFieldNames = new String[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gFieldNames[i] = child_td.getFieldName(gfields[i]);
+            types.add(child_td.getFieldType(gfields[i]));
+            names.add(gFieldNames[i]);
+        }
+        aFieldNames = new String[afields.length];
+        for (int j = 0; j < afields.length; j++) {
+            aFieldNames[j] = nameOfAggregatorOp(aops[j]) + "("
+                    + child_td.getFieldName(afields[j]) + ")";
+            types.add(Type.INT_TYPE);
+            names.add(aFieldNames[j]);
+            if (aops[j] == Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+                names.add("");
             }
-
-            aFieldName = fields[1];
-
-            td = new TupleDesc(typeAr, fields);
         }
+        gFieldName = gfields.length == 0 ? null : gFieldNames[0];
+        aFieldName = aFieldNames[0];
+        td = new TupleDesc(types.toArray(new Type[types.size()]),
+                names.toArray(new String[names.size()]));
     }
 
     /**
@@ -154,52 +213,363 @@ public class Aggregate extends Operator {
         return this.aop;
     }
 
+    /**
+     * @return the number of group-by fields; 0 if there is no grouping
+     */
+    public int numGroupFields() {
+        return aggGfields.length;
+    }
+
+    /**
+     * @return the name of the i-th group-by field in the <b>OUTPUT</b> tuples,
+     * where it is field i
+     */
+    public String groupFieldName(int i) {
+        return gFieldNames[i];
+    }
+
+    /**
+     * @return the number of aggregates computed
+     */
+    public int numAggregates() {
+        return aops.length;
+    }
+
+    /**
+     * @return the operator of the i-th aggregate
+     */
+    public Aggregator.Op aggregateOp(int i) {
+        return aops[i];
+    }
+
+    /**
+     * @return the name of the i-th aggregate in the <b>OUTPUT</b> tuples
+     */
+    public String aggregateFieldName(int i) {
+        return aFieldNames[i];
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
 
+    /**
+     * @return true if the last open() had to write partial aggregates to disk
+     */
+    public boolean hasSpilled() {
+        return spilled;
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         child.open();
-        if (it != null)
-            it.open();
         super.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. If there are group by fields, then the first
+     * fields are the fields by which we are grouping, and the rest are the
+     * results of computing the aggregates, If there is no group by field, then
+     * the result tuple contains only the results of the aggregates. Should
+     * return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // Actually perform the aggregation
-        if (it == null) {
+        if (it == null && !spilled) {
+            aggregate();
+        }
+
+        while (it == null || !it.hasNext()) {
+            if (!spilled || !nextPartition()) {
+                return null;
+            }
+        }
+        return it.next();
+    }
+
+    private static Aggregator newAggregator(TupleDesc desc, int[] gfields,
+                                            int[] afields, Aggregator.Op[] ops) {
+        if (ops.length > 1 || gfields.length > 1) {
+            return new MultiAggregator(desc, gfields, afields, ops);
+        }
+        int gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        Type gtype = gfields.length == 0 ? null : desc.getFieldType(gfield);
+        if (desc.getFieldType(afields[0]) == Type.INT_TYPE) {
+            return new IntegerAggregator(gfield, gtype, afields[0], ops[0]);
+        }
+        return new StringAggregator(gfield, gtype, afields[0], ops[0]);
+    }
+
+    private boolean canSpill() {
+        if (aggGfields.length == 0)
+            return false;
+        for (Op op : aops) {
+            if (op == Op.SUM_COUNT || op == Op.SC_AVG)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the operators that compute mergeable partial aggregates
+     */
+    private Op[] partialOps() {
+        Op[] ops = new Op[aops.length];
+        for (int j = 0; j < aops.length; j++) {
+            ops[j] = aops[j] == Op.AVG ? Op.SUM_COUNT : aops[j];
+        }
+        return ops;
+    }
+
+    /**
+     * @return the operators that combine the partial aggregates of a group
+     */
+    private Op[] mergeOps() {
+        Op[] ops = new Op[aops.length];
+        for (int j = 0; j < aops.length; j++) {
+            if (aops[j] == Op.AVG)
+                ops[j] = Op.SC_AVG;
+            else if (aops[j] == Op.COUNT)
+                ops[j] = Op.SUM;
+            else
+                ops[j] = aops[j];
+        }
+        return ops;
+    }
+
+    /**
+     * @return the TupleDesc of the partial aggregates: the group values
+     * followed by one int per aggregate, or two for SUM_COUNT
+     */
+    private TupleDesc partialDesc() {
+        TupleDesc child_td = child.getTupleDesc();
+        ArrayList<Type> types = new ArrayList<Type>();
+        for (int g : aggGfields) {
+            types.add(child_td.getFieldType(g));
+        }
+        for (Op op : partialOps()) {
+            types.add(Type.INT_TYPE);
+            if (op == Op.SUM_COUNT)
+                types.add(Type.INT_TYPE);
+        }
+        return new TupleDesc(types.toArray(new Type[types.size()]));
+    }
+
+    /**
+     * @return an aggregator that merges tuples of partialDesc() into the
+     * final aggregates
+     */
+    private Aggregator newMergeAggregator() {
+        int[] gfields = new int[aggGfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gfields[i] = i;
+        }
+        Op[] partial = partialOps();
+        int[] afields = new int[partial.length];
+        int f = gfields.length;
+        for (int j = 0; j < partial.length; j++) {
+            afields[j] = f;
+            f += partial[j] == Op.SUM_COUNT ? 2 : 1;
+        }
+        return newAggregator(partialDesc(), gfields, afields, mergeOps());
+    }
+
+    /**
+     * @return the partition of a partial aggregate, from its group values
+     */
+    private int partition(Tuple t, int depth) {
+        int h = 0;
+        for (int i = 0; i < aggGfields.length; i++) {
+            h = 31 * h + t.getField(i).hashCode();
+        }
+        return SpillFile.partition(h, depth, NUM_PARTITIONS);
+    }
+
+    private int budgetGroups() {
+        return Math.max(1, memoryPages * BufferPool.getPageSize()
+                / partialDesc().getSize());
+    }
+
+    /**
+     * Reads the whole child. If the groups fit in memory it is set to the
+     * result; otherwise the partial aggregates are partitioned to disk and
+     * the partitions are merged by nextPartition().
+     */
+    private void aggregate() throws TransactionAbortedException, DbException {
+        TupleDesc child_td = child.getTupleDesc();
+        if (!canSpill()) {
+            Aggregator agg = newAggregator(child_td, aggGfields, aggAfields, aops);
             while (child.hasNext()) {
-                Tuple t = child.next();
-                agg.mergeTupleIntoGroup(t);
+                agg.mergeTupleIntoGroup(child.next());
+            }
+            it = agg.iterator();
+            it.open();
+            return;
+        }
+
+        int budget = budgetGroups();
+        Aggregator agg = newAggregator(child_td, aggGfields, aggAfields, partialOps());
+        SpillFile[] parts = null;
+        while (child.hasNext()) {
+            agg.mergeTupleIntoGroup(child.next());
+            if (agg.numGroups() > budget) {
+                if (parts == null) {
+                    parts = newPartitions();
+                }
+                flush(agg, parts, 0);
+                agg = newAggregator(child_td, aggGfields, aggAfields, partialOps());
             }
+        }
 
+        if (parts == null) {
+            // everything fit; only AVG still has to turn its partials into averages
+            if (Arrays.asList(aops).contains(Op.AVG)) {
+                Aggregator avg = newMergeAggregator();
+                mergeAll(avg, agg.iterator());
+                agg = avg;
+            }
             it = agg.iterator();
             it.open();
+            return;
         }
 
-        if (it.hasNext())
-            return it.next();
-        return null;
+        flush(agg, parts, 0);
+        spilled = true;
+        partitions = new ArrayList<SpillFile>(Arrays.asList(parts));
+        startPartitions();
+    }
+
+    private static void mergeAll(Aggregator agg, DbIterator in)
+            throws DbException, TransactionAbortedException {
+        in.open();
+        while (in.hasNext()) {
+            agg.mergeTupleIntoGroup(in.next());
+        }
+        in.close();
+    }
+
+    private SpillFile[] newPartitions() throws DbException {
+        TupleDesc desc = partialDesc();
+        SpillFile[] parts = new SpillFile[NUM_PARTITIONS];
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            parts[i] = new SpillFile(desc);
+        }
+        return parts;
+    }
+
+    /**
+     * Writes the partial aggregates of agg to the partitions of their groups.
+     */
+    private void flush(Aggregator agg, SpillFile[] parts, int depth)
+            throws DbException, TransactionAbortedException {
+        DbIterator in = agg.iterator();
+        in.open();
+        while (in.hasNext()) {
+            Tuple t = in.next();
+            parts[partition(t, depth)].add(t);
+        }
+        in.close();
+    }
+
+    private void startPartitions() {
+        pending = new LinkedList<SpillFile>(partitions);
+        pendingDepth = new LinkedList<Integer>();
+        for (int i = 0; i < partitions.size(); i++) {
+            pendingDepth.add(1);
+        }
+        current = null;
+        it = null;
+    }
+
+    /**
+     * Merges the partial aggregates of the next partition and points it at
+     * the result, re-partitioning partitions that have too many groups.
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closeCurrent();
+        int budget = budgetGroups();
+        while (!pending.isEmpty()) {
+            SpillFile part = pending.removeFirst();
+            int depth = pendingDepth.removeFirst();
+            if (part.numTuples() == 0) {
+                discard(part);
+                continue;
+            }
+            Aggregator agg = newMergeAggregator();
+            DbIterator in = part.iterator();
+            in.open();
+            boolean overflow = false;
+            while (in.hasNext()) {
+                agg.mergeTupleIntoGroup(in.next());
+                if (agg.numGroups() > budget && depth < MAX_DEPTH) {
+                    overflow = true;
+                    break;
+                }
+            }
+            if (overflow) {
+                // split the partial aggregates themselves, not the merged ones
+                SpillFile[] sub = newPartitions();
+                in.rewind();
+                while (in.hasNext()) {
+                    Tuple t = in.next();
+                    sub[partition(t, depth)].add(t);
+                }
+                in.close();
+                discard(part);
+                for (int i = NUM_PARTITIONS - 1; i >= 0; i--) {
+                    pending.addFirst(sub[i]);
+                    pendingDepth.addFirst(depth + 1);
+                }
+                continue;
+            }
+            in.close();
+            current = part;
+            it = agg.iterator();
+            it.open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes a partition, unless it belongs to the first partitioning pass
+     * and is still needed for rewind().
+     */
+    private void discard(SpillFile part) {
+        if (!partitions.contains(part)) {
+            part.delete();
+        }
+    }
+
+    private void closeCurrent() {
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        if (current != null) {
+            discard(current);
+            current = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        close();
-        open();
+        if (spilled) {
+            closeCurrent();
+            for (SpillFile part : pending) {
+                discard(part);
+            }
+            startPartitions();
+        } else if (it != null) {
+            it.rewind();
+        }
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate. The group by fields, if any,
+     * come first, followed by one aggregate value column per aggregate (two
+     * for SUM_COUNT).
      * <p/>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -213,9 +583,23 @@ public class Aggregate extends Operator {
     public void close() {
         super.close();
         child.close();
+        if (spilled) {
+            closeCurrent();
+            for (SpillFile part : pending) {
+                discard(part);
+            }
+            for (SpillFile part : partitions) {
+                part.delete();
+            }
+        }
         if (it != null) {
             it.close();
         }
+        it = null;
+        spilled = false;
+        partitions = null;
+        pending = null;
+        pendingDepth = null;
     }
 
     @Override
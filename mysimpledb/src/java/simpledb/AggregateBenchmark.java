@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+
+/**
+ * Measures the throughput of a grouped SUM over an int column, comparing
+ * {@link IntegerAggregator}'s int-keyed group table with a copy of its old
+ * grouping code, which keyed groups by the String form of the group value.
+ * <p/>
+ * Usage: java simpledb.AggregateBenchmark [rows] [groups] [repetitions]
+ */
+public class AggregateBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int rows = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000000;
+        int groups = argv.length > 1 ? Integer.parseInt(argv[1]) : 10000;
+        int reps = argv.length > 2 ? Integer.parseInt(argv[2]) : 5;
+
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField((int) ((i * 2654435761L) % groups)));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        TupleIterator child = new TupleIterator(td, tuples);
+
+        System.out.println("GROUP BY over " + rows + " rows, " + groups + " groups");
+        for (int r = 0; r < reps; r++) {
+            long start = System.nanoTime();
+            int out = intKeyed(child);
+            long intNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int legacyOut = stringKeyed(child);
+            long stringNanos = System.nanoTime() - start;
+
+            if (out != groups || legacyOut != groups) {
+                throw new IllegalStateException("expected " + groups + " groups, got "
+                        + out + " and " + legacyOut);
+            }
+            System.out.println("run " + r + ": int-keyed " + rate(rows, intNanos)
+                    + " rows/s, string-keyed " + rate(rows, stringNanos)
+                    + " rows/s, speedup " + String.format("%.2f",
+                    (double) stringNanos / intNanos) + "x");
+        }
+    }
+
+    private static long rate(int rows, long nanos) {
+        return (long) (rows / (nanos / 1e9));
+    }
+
+    /**
+     * Runs SUM(field 1) GROUP BY field 0 through IntegerAggregator.
+     *
+     * @return the number of groups
+     */
+    private static int intKeyed(DbIterator child) throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1,
+                Aggregator.Op.SUM);
+        child.open();
+        while (child.hasNext()) {
+            agg.mergeTupleIntoGroup(child.next());
+        }
+        child.close();
+        return drain(agg.iterator());
+    }
+
+    /**
+     * Runs the same aggregate through {@link LegacyAggregator}.
+     *
+     * @return the number of groups
+     */
+    private static int stringKeyed(DbIterator child) throws Exception {
+        LegacyAggregator agg = new LegacyAggregator(0, 1);
+        child.open();
+        while (child.hasNext()) {
+            agg.mergeTupleIntoGroup(child.next());
+        }
+        child.close();
+        return drain(agg.iterator());
+    }
+
+    /**
+     * IntegerAggregator's grouping before it was keyed on ints, cut down to
+     * an int group field and SUM: each group value is turned into a String
+     * for the lookup into a HashMap of AggregateFields, and parsed back into
+     * an IntField for the output.
+     */
+    private static class LegacyAggregator {
+        private final int gbfield;
+        private final int afield;
+        private final HashMap<String, AggregateFields> groups =
+                new HashMap<String, AggregateFields>();
+
+        LegacyAggregator(int gbfield, int afield) {
+            this.gbfield = gbfield;
+            this.afield = afield;
+        }
+
+        void mergeTupleIntoGroup(Tuple tup) {
+            String groupVal = tup.getField(gbfield).toString();
+            AggregateFields agg = groups.get(groupVal);
+            if (agg == null)
+                agg = new AggregateFields();
+
+            int x = ((IntField) tup.getField(afield)).getValue();
+
+            agg.count++;
+            agg.sum += x;
+            agg.min = (x < agg.min ? x : agg.min);
+            agg.max = (x > agg.max ? x : agg.max);
+
+            groups.put(groupVal, agg);
+        }
+
+        DbIterator iterator() {
+            LinkedList<Tuple> result = new LinkedList<Tuple>();
+            TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE});
+            for (String groupVal : groups.keySet()) {
+                AggregateFields agg = groups.get(groupVal);
+                Tuple tup = new Tuple(td);
+                tup.setField(0, new IntField(Integer.parseInt(groupVal)));
+                tup.setField(1, new IntField(agg.sum));
+                result.add(tup);
+            }
+            return new TupleIterator(td, Collections.unmodifiableList(result));
+        }
+
+        private static class AggregateFields {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE, sum, count;
+        }
+    }
+
+    private static int drain(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
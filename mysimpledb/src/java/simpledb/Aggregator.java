@@ -75,6 +75,11 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * @return the number of distinct groups merged so far
+     */
+    public int numGroups();
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -1,13 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 
 
 /**
@@ -18,6 +21,20 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p/>
+ * Tables may have different page sizes (see {@link DbFile#getPageSize}), so
+ * the pool's capacity is a number of bytes: numPages pages of
+ * {@link #getPageSize} bytes. A table with pages twice that size fills the
+ * pool with half as many pages.
+ * <p/>
+ * An off-heap pool (see {@link #BufferPool(int, boolean)}) keeps the pages
+ * of HeapPage-format tables of the default page size as raw bytes in frames
+ * of direct memory, as {@link FramePage}s that decode tuples on access,
+ * rather than as HeapPages holding Tuple objects. The pool then holds a
+ * handful of objects per page, and its size is limited by the memory it is
+ * given (and the JVM's -XX:MaxDirectMemorySize) rather than by garbage
+ * collection pauses. Pages of other formats or sizes are kept on the heap
+ * and count against the same capacity.
  *
  * @Threadsafe, all fields are final
  */
@@ -38,20 +55,25 @@ public class BufferPool {
 	 */
 	public static final int DEFAULT_PAGES = 50;
 
-	/* maps PageIDs to pages */
-	private HashMap<PageId, Page> pagemap;
+	/* maps PageIDs to pages, and keeps them in their order of use for the
+	 * LRU policy */
+	private PageTable pagemap;
 
 	/* maximum number of pages in this buffer pool. */
 	private int numPages;
 
-	/* number of pages currently in the buffer pool. */
-	private int currpages; 
-
-	/* Maps retrieval time to pages, for LRU policy. */
-	private TreeMap<Long, Page> timemap;
+	/* bytes taken up by the pages currently in the buffer pool. */
+	private long currbytes;
 
 	private static LockManager lm;
 
+	/* the frames of an off-heap pool, or null */
+	private final FrameArena frames;
+
+	/* counts the pages written or discarded, so that a prefetch can tell
+	 * whether the page it read may have changed since */
+	private long pageChanges;
+
 	/* maps TransactionIDs to the PageIDs of all pages that it called getPage for */ 
 	private HashMap<TransactionId, HashSet<PageId>> transactionmap;
 
@@ -62,25 +84,59 @@ public class BufferPool {
 	 */
 
 	public BufferPool(int numPages) {
-		pagemap = new HashMap<PageId, Page>();
+		this(numPages, false);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages, either on the
+	 * heap or, if offHeap is set, in numPages frames of
+	 * {@link #getPageSize} bytes of direct memory.
+	 *
+	 * @param numPages maximum number of pages in this buffer pool.
+	 * @param offHeap  whether to keep pages in off-heap frames
+	 */
+	public BufferPool(int numPages, boolean offHeap) {
+		frames = offHeap ? new FrameArena(numPages, getPageSize()) : null;
+		pagemap = new PageTable(numPages);
 		this.numPages = numPages;
-		timemap = new TreeMap<Long, Page>();
 		transactionmap = new HashMap<TransactionId, HashSet<PageId>>();
 		lm = new LockManager();
-		currpages = 0;
+		currbytes = 0;
 	}
 
 	public int numPages() {
 		return numPages;
 	}
 
+	/**
+	 * @return whether the pool keeps pages in off-heap frames
+	 */
+	public boolean isOffHeap() {
+		return frames != null;
+	}
+
 	public static LockManager getLockManager() { return lm; }
 
 
+	/**
+	 * @return the default page size, which also sets the capacity of the pool
+	 */
 	public static int getPageSize() {
 		return pageSize;
 	}
 
+	/**
+	 * @return the size of the pages of the given page's table
+	 */
+	private static int pageSize(PageId pid) {
+		try {
+			return Database.getCatalog().getPageSize(pid.getTableId());
+		} catch (java.util.NoSuchElementException e) {
+			// a table dropped while its pages were cached
+			return pageSize;
+		}
+	}
+
 	// THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
 	public static void setPageSize(int pageSize) {
 		BufferPool.pageSize = pageSize;
@@ -123,30 +179,188 @@ public class BufferPool {
 
 			transactionmap.put(tid, set);
 
-			if (pagemap.containsKey(pid)){
-				Long time = System.currentTimeMillis();
-				Page page = pagemap.get(pid);
-				timemap.put(time, page);
-				return page;
+			Page cached = pagemap.use(pid);
+			if (cached != null) {
+				return cached;
 			}
 
-			if (this.currpages == this.numPages) {
+			int size = pageSize(pid);
+			long capacity = (long) this.numPages * getPageSize();
+			while (this.currbytes + size > capacity && !pagemap.isEmpty()) {
 				this.evictPage();
 			}
 
 			int tableid = pid.getTableId();
 			DbFile dbfile = Database.getCatalog().getDatabaseFile(tableid);
-			this.pagemap.put(pid, dbfile.readPage(pid));
-			Page page = pagemap.get(pid);
-			Long time = System.currentTimeMillis();
-			timemap.put(time, page);
-			currpages++;
+			Page page = dbfile.readPage(pid);
+			if (page == null) {
+				// not cached, so the next getPage tries again
+				return null;
+			}
+			page = intoFrame(page, size);
+			this.pagemap.put(pid, page);
+			currbytes += size;
+
+			return page;
+
+		}
+	}
 
+	/**
+	 * Copies a HeapPage just read from its file into a free frame, if the
+	 * pool is off-heap and there is one. A HeapPage only decodes its tuples
+	 * when they are asked for, so reading one costs little more than reading
+	 * its bytes.
+	 *
+	 * @return the page to cache: the copy, or the page itself
+	 */
+	private Page intoFrame(Page page, int size) {
+		if (frames == null || size != frames.frameSize() || !(page instanceof HeapPage)) {
 			return page;
+		}
+		int frameNo = frames.allocate();
+		if (frameNo < 0) {
+			return page;
+		}
+		ByteBuffer frame = frames.frame(frameNo);
+		page.writePageData(frame.duplicate());
+		return new FramePage((HeapPageId) page.getId(), frame, frames, frameNo);
+	}
 
+	/**
+	 * Gives back the frame of a page that has left the pool; see
+	 * {@link FramePage#leaveFrame}.
+	 */
+	private static void leaveFrame(Page page) {
+		if (page instanceof FramePage) {
+			((FramePage) page).leaveFrame();
 		}
 	}
 
+	/**
+	 * Retrieves several pages with the associated permissions, as getPage
+	 * does, but first issues reads of all the ones that aren't cached at once
+	 * (see {@link #prefetchPages}), so that their I/O overlaps rather than
+	 * happening one page after another. Locks are acquired in the order of
+	 * the list once the reads are done.
+	 *
+	 * @return the pages, in the order of pids
+	 */
+	public List<Page> getPages(TransactionId tid, List<? extends PageId> pids, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		prefetchPages(pids).join();
+		ArrayList<Page> pages = new ArrayList<Page>(pids.size());
+		for (PageId pid : pids) {
+			pages.add(getPage(tid, pid, perm));
+		}
+		return pages;
+	}
+
+	/**
+	 * Starts reading the given pages into the pool, without locking them for
+	 * any transaction, and returns without waiting for them. The reads of
+	 * all the pages that aren't cached are outstanding at once, through
+	 * {@link DbFile#readPageAsync}; each page is added to the pool as its
+	 * read completes, as {@link #prefetchPage} adds it. A page that can't be
+	 * read is left out; getPage reports the error if it is asked for.
+	 *
+	 * @return a future that completes when all the reads have
+	 */
+	public CompletableFuture<Void> prefetchPages(Collection<? extends PageId> pids) {
+		ArrayList<CompletableFuture<Boolean>> reads = new ArrayList<CompletableFuture<Boolean>>();
+		for (PageId pid : pids) {
+			reads.add(prefetchPageAsync(pid));
+		}
+		return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0]));
+	}
+
+	/**
+	 * Starts reading a page into the pool, as {@link #prefetchPages} does.
+	 *
+	 * @return a future that completes with whether the page was read from
+	 * its file
+	 */
+	CompletableFuture<Boolean> prefetchPageAsync(final PageId pid) {
+		final long changes;
+		synchronized (this) {
+			if (pagemap.contains(pid)) {
+				return CompletableFuture.completedFuture(false);
+			}
+			changes = pageChanges;
+		}
+		CompletableFuture<Page> read;
+		try {
+			read = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPageAsync(pid);
+		} catch (RuntimeException e) {
+			// e.g. the table was dropped
+			return CompletableFuture.completedFuture(false);
+		}
+		return read.handle(new BiFunction<Page, Throwable, Boolean>() {
+			public Boolean apply(Page page, Throwable e) {
+				if (page == null) {
+					return false;
+				}
+				installPrefetched(pid, page, changes);
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Reads a page into the pool ahead of a getPage for it, without locking
+	 * it for any transaction; see {@link ReadAhead}. The page is read from
+	 * its file without holding the pool's lock, so a prefetch doesn't hold up
+	 * transactions, and it is dropped if the page was cached or written
+	 * meanwhile. Makes room for it as getPage does.
+	 *
+	 * @return whether the page was read from its file
+	 */
+	boolean prefetchPage(PageId pid) {
+		long changes;
+		synchronized (this) {
+			if (pagemap.contains(pid)) {
+				return false;
+			}
+			changes = pageChanges;
+		}
+		Page page;
+		try {
+			page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+		} catch (RuntimeException e) {
+			// e.g. the table was dropped during the scan
+			return false;
+		}
+		if (page == null) {
+			return false;
+		}
+		installPrefetched(pid, page, changes);
+		return true;
+	}
+
+	/**
+	 * Adds a prefetched page to the pool, unless the page has been cached,
+	 * or any page written or discarded, since the read began.
+	 *
+	 * @param changes the value of pageChanges when the read began
+	 */
+	private synchronized void installPrefetched(PageId pid, Page page, long changes) {
+		if (pagemap.contains(pid) || pageChanges != changes) {
+			return;
+		}
+		int size = pageSize(pid);
+		long capacity = (long) this.numPages * getPageSize();
+		try {
+			while (this.currbytes + size > capacity && !pagemap.isEmpty()) {
+				this.evictPage();
+			}
+		} catch (DbException e) {
+			return;
+		}
+		page = intoFrame(page, size);
+		pagemap.put(pid, page);
+		currbytes += size;
+	}
+
 	/**
 	 * Releases the lock on a page.
 	 * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -276,8 +490,7 @@ public class BufferPool {
 		for (Page page : pagelist) {
 			page.markFlushedToLog(false);
 			page.markDirty(true, tid);
-			pagemap.put(page.getId(), page);
-
+			cacheChanged(page);
 		}
 	}
 
@@ -301,7 +514,20 @@ public class BufferPool {
 		for (Page page : pagelist) {
 			page.markFlushedToLog(false);
 			page.markDirty(true, tid);
-			pagemap.put(page.getId(), page);
+			cacheChanged(page);
+		}
+	}
+
+	/**
+	 * Puts a page a transaction has changed back in the pool, in case it was
+	 * evicted after the transaction fetched it.
+	 */
+	private synchronized void cacheChanged(Page page) {
+		Page old = pagemap.put(page.getId(), page);
+		if (old == null) {
+			currbytes += pageSize(page.getId());
+		} else if (old != page) {
+			leaveFrame(old);
 		}
 	}
 
@@ -311,7 +537,7 @@ public class BufferPool {
 	 * break simpledb if running in NO STEAL mode.
 	 */
 	public synchronized void flushAllPages() throws IOException {
-		for (PageId pageid : pagemap.keySet()) {
+		for (PageId pageid : pagemap.ids()) {
 			this.flushPage(pageid);
 		}
 
@@ -324,10 +550,18 @@ public class BufferPool {
 	 * cache.
 	 */
 	public synchronized void discardPage(PageId pid) {
-		pagemap.remove(pid);
-		this.currpages--;
-
-
+		pageChanges++;
+		Page page = pagemap.remove(pid);
+		if (page != null) {
+			this.currbytes -= pageSize(pid);
+			leaveFrame(page);
+		}
+		// a rolled back insert may have marked the page full; the next insert
+		// looks at it again
+		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+		if (file instanceof HeapFile) {
+			((HeapFile) file).updateFreeSpace(pid.pageNumber(), true);
+		}
 	}
 
 	/**
@@ -348,6 +582,7 @@ public class BufferPool {
 					page.markFlushedToLog(true);
 				}
 				page.markDirty(false, dirtier);
+				pageChanges++;
 				file.writePage(page);
 				pagemap.put(pid, page); // update hashmap
 			}
@@ -372,17 +607,18 @@ public class BufferPool {
 	 * @throws IOException 
 	 */
 	private synchronized void evictPage() throws DbException {
-		assert (this.currpages == this.numPages); //shouldn't need to evict if there's still space
-		if (timemap.firstEntry().getValue().isDirty() != null) {
+		PageId pid = pagemap.leastRecentlyUsed();
+		Page cached = pagemap.get(pid);
+		if (cached.isDirty() != null) {
 			try {
-				flushPage(timemap.firstEntry().getValue().getId());
+				flushPage(pid);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
 		}
-		pagemap.remove(timemap.firstEntry().getValue().getId());
-		timemap.remove(timemap.firstKey());
-		currpages--;
+		pagemap.remove(pid);
+		currbytes -= pageSize(pid);
+		leaveFrame(cached);
 	}
 
 }
@@ -0,0 +1,68 @@
+package simpledb;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * Measures the latency of a BufferPool hit: {@link BufferPool#getPage} of a
+ * page that is already cached, by a transaction that already holds its
+ * lock. For each pool size the pool is filled with that many pages of an
+ * empty table, which are then fetched in random order, so the time per
+ * fetch is the cost of finding the page and recording its use.
+ * <p/>
+ * Usage: java simpledb.BufferPoolBenchmark [hits] [repetitions] [pool sizes...]
+ */
+public class BufferPoolBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int hits = argv.length > 0 ? Integer.parseInt(argv[0]) : 1000000;
+        int reps = argv.length > 1 ? Integer.parseInt(argv[1]) : 5;
+        int[] sizes = {100, 1000, 10000, 50000};
+        if (argv.length > 2) {
+            sizes = new int[argv.length - 2];
+            for (int i = 2; i < argv.length; i++) {
+                sizes[i - 2] = Integer.parseInt(argv[i]);
+            }
+        }
+        int maxSize = 0;
+        for (int size : sizes) {
+            maxSize = Math.max(maxSize, size);
+        }
+
+        // a file of zeroes reads as empty pages; it is sparse, so it takes no
+        // room on disk
+        File f = File.createTempFile("poolbench", ".dat");
+        f.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength((long) maxSize * BufferPool.getPageSize());
+        raf.close();
+        HeapFile hf = Utility.openHeapFile(2, f);
+        hf.setReadAhead(false);
+
+        for (int size : sizes) {
+            BufferPool pool = Database.resetBufferPool(size);
+            TransactionId tid = new TransactionId();
+            HeapPageId[] pids = new HeapPageId[size];
+            for (int i = 0; i < size; i++) {
+                pids[i] = new HeapPageId(hf.getId(), i);
+                pool.getPage(tid, pids[i], Permissions.READ_ONLY);
+            }
+            int[] order = new int[hits];
+            Random rand = new Random(42);
+            for (int i = 0; i < hits; i++) {
+                order[i] = rand.nextInt(size);
+            }
+            for (int r = 0; r < reps; r++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < hits; i++) {
+                    pool.getPage(tid, pids[order[i]], Permissions.READ_ONLY);
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.println("pool of " + size + " pages, run " + r + ": "
+                        + String.format("%.1f", (double) nanos / hits) + " ns/hit");
+            }
+            pool.transactionComplete(tid);
+        }
+    }
+}
@@ -48,7 +48,10 @@ public class Catalog {
      *                  conflict exists, use the last table to be added as the table for a given name.
      */
     public void addTable(DbFile file, String name, String pkeyField) {
-        tablemap.put(file.getId(), file);
+        DbFile old = tablemap.put(file.getId(), file);
+        if (old != null && old != file) {
+            old.close();
+        }
         tableidtonamemap.put(file.getId(), name);
         tableidtopkeymap.put(file.getId(), pkeyField);
         tablenametoidmap.put(name, file.getId());
@@ -99,6 +102,20 @@ public class Catalog {
     	return tablemap.get(tableid).getTupleDesc();
     }
 
+    /**
+     * Returns the page size of the specified table
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        if (!tablemap.containsKey(tableid)) {
+            throw new NoSuchElementException();
+        }
+        return tablemap.get(tableid).getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -127,12 +144,15 @@ public class Catalog {
     }
 
     /**
-     * Delete all tables from the catalog
+     * Delete all tables from the catalog, closing their files
      */
     public void clear() {
     	if (this.count == 0){
     		return;
     	}
+        for (DbFile file : this.tablemap.values()) {
+            file.close();
+        }
         this.tablemap.clear();
         this.tableidtonamemap.clear();
         this.tableidtopkeymap.clear();
@@ -152,7 +172,8 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format
+                //name (field type, field type, ...) [format] [pagesize=bytes]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -183,7 +204,30 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                String format = "heap";
+                int pageSize = BufferPool.getPageSize();
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    option = option.toLowerCase();
+                    if (option.equals("heap") || option.equals("slotted") || option.equals("pax")
+                            || option.equals("compressed"))
+                        format = option;
+                    else if (option.startsWith("pagesize="))
+                        pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                    else if (!option.equals("")) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder + "/" + name + ".dat");
+                HeapFile tabHf;
+                if (format.equals("slotted"))
+                    tabHf = new SlottedFile(dataFile, t, pageSize);
+                else if (format.equals("pax"))
+                    tabHf = new PaxFile(dataFile, t, pageSize);
+                else if (format.equals("compressed"))
+                    tabHf = new CompressedFile(dataFile, t, pageSize);
+                else
+                    tabHf = new HeapFile(dataFile, t, pageSize);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t + (primaryKey.equals("")? "":(" key is " + primaryKey)));
             }
@@ -193,6 +237,10 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (IllegalArgumentException e) {
+            // includes a page size that isn't a number
+            System.out.println("Invalid catalog entry : " + line + " (" + e.getMessage() + ")");
+            System.exit(0);
         }
     }
 }
@@ -0,0 +1,360 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * CompressedFile is a DbFile of {@link HeapPage}s that are compressed on
+ * disk by {@link PageCompressor}. It suits tables of repetitive strings and
+ * small ints that are mostly read, such as archived data: a page is
+ * decompressed when it is read into the BufferPool, so scans and queries
+ * see ordinary HeapPages, and compressed again when it is written out.
+ * <p/>
+ * Since compressed pages differ in size, they are not at fixed offsets.
+ * Each page is stored as a record: a header of its page number, the length
+ * of the compressed page and the room the record has for it, followed by
+ * the compressed page and then zeroes up to the next multiple of
+ * {@link #RECORD_ALIGN} bytes. A page that still fits in its record is
+ * rewritten in place; one that has outgrown it is written to a new record
+ * at the end of the file, and the old record is marked dead with a page
+ * number of -1. When the file is opened its records are read in order to
+ * find each page, so no separate directory has to be kept in step with it.
+ * The space of dead records is only reclaimed by writing the table again
+ * (see {@link #convert}).
+ * <p/>
+ * A table is stored this way by naming the "compressed" format in its entry
+ * in the catalog file (see {@link Catalog#loadSchema}).
+ *
+ * @see PageCompressor
+ */
+public class CompressedFile extends HeapFile {
+
+    // page number, length and room of a record
+    static final int RECORD_HEADER = 12;
+
+    /**
+     * Records are a multiple of this many bytes, which leaves most pages a
+     * little room to grow in place.
+     */
+    public static final int RECORD_ALIGN = 64;
+
+    // where the record of each page starts, or -1 for a page with none yet
+    private long[] offsets = new long[0];
+    private int[] lengths = new int[0], capacities = new int[0];
+    // the pages in use, or -1 until the records have been read
+    private int numPages = -1;
+    // where the next new record goes
+    private long end;
+
+    /**
+     * Constructs a compressed file backed by the specified file.
+     */
+    public CompressedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a compressed file backed by the specified file, with pages
+     * of the given size once they are decompressed.
+     */
+    public CompressedFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    /**
+     * Finds the records of the pages, the first time the file is used.
+     */
+    private synchronized void readRecords() throws IOException {
+        if (numPages >= 0) {
+            return;
+        }
+        numPages = 0;
+        end = 0;
+        if (!getFile().exists()) {
+            return;
+        }
+        FileChannel ch = channel(false);
+        long size = ch.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (end + RECORD_HEADER <= size) {
+            header.clear();
+            while (header.hasRemaining()) {
+                if (ch.read(header, end + header.position()) < 0) {
+                    break;
+                }
+            }
+            int pgNo = header.getInt(0), length = header.getInt(4), capacity = header.getInt(8);
+            if (capacity <= 0 || end + RECORD_HEADER + capacity > size) {
+                // the end of a record that was never completely written
+                break;
+            }
+            if (pgNo >= 0) {
+                setRecord(pgNo, end, length, capacity);
+            }
+            end += RECORD_HEADER + capacity;
+        }
+    }
+
+    private void setRecord(int pgNo, long offset, int length, int capacity) {
+        if (pgNo >= offsets.length) {
+            int n = Math.max(pgNo + 1, offsets.length * 2);
+            int old = offsets.length;
+            offsets = Arrays.copyOf(offsets, n);
+            Arrays.fill(offsets, old, n, -1L);
+            lengths = Arrays.copyOf(lengths, n);
+            capacities = Arrays.copyOf(capacities, n);
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        capacities[pgNo] = capacity;
+        numPages = Math.max(numPages, pgNo + 1);
+    }
+
+    /**
+     * Reads and decompresses a page. A page that has been handed out but
+     * not yet written reads as an empty page.
+     */
+    public Page readPage(PageId pid) {
+        int pgNo = pid.pageNumber();
+        try {
+            long offset;
+            int length;
+            synchronized (this) {
+                readRecords();
+                offset = pgNo < offsets.length ? offsets[pgNo] : -1;
+                length = offset >= 0 ? lengths[pgNo] : 0;
+            }
+            if (offset < 0) {
+                return newPage(pid, new byte[getPageSize()]);
+            }
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            FileChannel ch = channel(false);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + RECORD_HEADER + buf.position()) < 0) {
+                    throw new EOFException("record of page " + pgNo + " is cut short");
+                }
+            }
+            buf.flip();
+            return newPage(pid, PageCompressor.decompress(buf, getTupleDesc(), getPageSize()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Starts reading a page's record, and decompresses the page when the
+     * read completes.
+     */
+    public CompletableFuture<Page> readPageAsync(final PageId pid) {
+        final int pgNo = pid.pageNumber();
+        try {
+            long offset;
+            int length;
+            synchronized (this) {
+                readRecords();
+                offset = pgNo < offsets.length ? offsets[pgNo] : -1;
+                length = offset >= 0 ? lengths[pgNo] : 0;
+            }
+            if (offset < 0) {
+                return CompletableFuture.completedFuture(
+                        (Page) newPage(pid, new byte[getPageSize()]));
+            }
+            return readFully(asyncChannel(false), ByteBuffer.allocate(length),
+                    offset + RECORD_HEADER).thenApply(new Function<ByteBuffer, Page>() {
+                public Page apply(ByteBuffer buf) {
+                    try {
+                        if (buf.hasRemaining()) {
+                            throw new EOFException("record of page " + pgNo + " is cut short");
+                        }
+                        buf.flip();
+                        return newPage(pid, PageCompressor.decompress(buf, getTupleDesc(),
+                                getPageSize()));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * Compresses a page and writes it to its record, or to a new record at
+     * the end of the file if it no longer fits.
+     */
+    public void writePage(Page page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        byte[] compressed = PageCompressor.compress(page.getPageData(), getTupleDesc(),
+                getPageSize());
+        synchronized (this) {
+            readRecords();
+            FileChannel ch = channel(true);
+            long old = pgNo < offsets.length ? offsets[pgNo] : -1;
+            if (old >= 0 && compressed.length <= capacities[pgNo]) {
+                writeRecord(ch, old, pgNo, compressed, capacities[pgNo], false);
+                lengths[pgNo] = compressed.length;
+                return;
+            }
+            int capacity = (compressed.length + RECORD_ALIGN - 1) / RECORD_ALIGN * RECORD_ALIGN;
+            writeRecord(ch, end, pgNo, compressed, capacity, true);
+            if (old >= 0) {
+                ByteBuffer dead = ByteBuffer.allocate(4);
+                dead.putInt(0, -1);
+                while (dead.hasRemaining()) {
+                    ch.write(dead, old + dead.position());
+                }
+            }
+            setRecord(pgNo, end, compressed.length, capacity);
+            end += RECORD_HEADER + capacity;
+        }
+    }
+
+    /**
+     * Compresses a page and starts writing it to its record, or to a new
+     * record at the end of the file if it no longer fits. The new record is
+     * set aside straight away, so that other writes don't use its space, but
+     * the page's record only changes once the write completes, and the old
+     * one is then marked dead. Only one write of a page should be
+     * outstanding at a time.
+     */
+    public CompletableFuture<Page> writePageAsync(final Page page) {
+        final int pgNo = page.getId().pageNumber();
+        final byte[] compressed = PageCompressor.compress(page.getPageData(), getTupleDesc(),
+                getPageSize());
+        try {
+            final AsynchronousFileChannel ch;
+            final long old, offset;
+            final int capacity;
+            synchronized (this) {
+                readRecords();
+                ch = asyncChannel(true);
+                old = pgNo < offsets.length ? offsets[pgNo] : -1;
+                if (old >= 0 && compressed.length <= capacities[pgNo]) {
+                    offset = old;
+                    capacity = capacities[pgNo];
+                } else {
+                    offset = end;
+                    capacity = (compressed.length + RECORD_ALIGN - 1) / RECORD_ALIGN * RECORD_ALIGN;
+                    end += RECORD_HEADER + capacity;
+                }
+            }
+            final boolean moved = offset != old;
+            CompletableFuture<ByteBuffer> write = writeFully(ch,
+                    record(pgNo, compressed, capacity, moved), offset);
+            if (moved && old >= 0) {
+                // the page's new record is written before its old one is
+                // given up
+                write = write.thenCompose(new Function<ByteBuffer, CompletableFuture<ByteBuffer>>() {
+                    public CompletableFuture<ByteBuffer> apply(ByteBuffer buf) {
+                        ByteBuffer dead = ByteBuffer.allocate(4);
+                        dead.putInt(0, -1);
+                        return writeFully(ch, dead, old);
+                    }
+                });
+            }
+            return write.thenApply(new Function<ByteBuffer, Page>() {
+                public Page apply(ByteBuffer buf) {
+                    synchronized (CompressedFile.this) {
+                        if (moved) {
+                            setRecord(pgNo, offset, compressed.length, capacity);
+                        } else {
+                            lengths[pgNo] = compressed.length;
+                        }
+                    }
+                    return page;
+                }
+            });
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+    }
+
+    /**
+     * Writes a record at the given offset; a new record is padded out to
+     * its capacity, so that the file extends to its end.
+     */
+    private static void writeRecord(FileChannel ch, long offset, int pgNo, byte[] compressed,
+                                    int capacity, boolean pad) throws IOException {
+        ByteBuffer buf = record(pgNo, compressed, capacity, pad);
+        while (buf.hasRemaining()) {
+            ch.write(buf, offset + buf.position());
+        }
+    }
+
+    /**
+     * @return a buffer holding a record, padded out to its capacity if pad
+     * is set
+     */
+    private static ByteBuffer record(int pgNo, byte[] compressed, int capacity, boolean pad) {
+        ByteBuffer buf = ByteBuffer.allocate(RECORD_HEADER
+                + (pad ? capacity : compressed.length));
+        buf.putInt(pgNo).putInt(compressed.length).putInt(capacity).put(compressed);
+        buf.clear();
+        return buf;
+    }
+
+    public synchronized int numPages() {
+        try {
+            readRecords();
+        } catch (IOException e) {
+            return 0;
+        }
+        return numPages;
+    }
+
+    /**
+     * Hands out a new page; it gets a record when it is first written.
+     */
+    synchronized int allocatePage() throws IOException {
+        readRecords();
+        return numPages++;
+    }
+
+    /**
+     * Writes the pages of a HeapFile to a new file in the CompressedFile
+     * format.
+     *
+     * @param heapFile the HeapFile's file, which is read directly rather than
+     *                 through the BufferPool
+     * @param td       the TupleDesc of the table
+     * @param outFile  the file to write, replacing any existing contents
+     * @param pageSize the page size of the HeapFile
+     * @return the number of pages written
+     */
+    public static int convert(File heapFile, TupleDesc td, File outFile, int pageSize)
+            throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(heapFile)));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(outFile)));
+        int numPages = (int) ((heapFile.length() + pageSize - 1) / pageSize);
+        try {
+            byte[] page = new byte[pageSize];
+            for (int pgNo = 0; pgNo < numPages; pgNo++) {
+                Arrays.fill(page, (byte) 0);
+                int n = 0, read;
+                while (n < pageSize && (read = in.read(page, n, pageSize - n)) > 0) {
+                    n += read;
+                }
+                byte[] compressed = PageCompressor.compress(page, td, pageSize);
+                int capacity = (compressed.length + RECORD_ALIGN - 1) / RECORD_ALIGN * RECORD_ALIGN;
+                out.writeInt(pgNo);
+                out.writeInt(compressed.length);
+                out.writeInt(capacity);
+                out.write(compressed);
+                out.write(new byte[capacity - compressed.length]);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return numPages;
+    }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Measures {@link CompressedFile} on the tables of a schema: for each table
+ * whose data file exists, it prints the size of the table as a HeapFile and
+ * compressed, and the rate at which a sequential scan reads each. The
+ * BufferPool is emptied before every scan, so each page is read (and for the
+ * compressed table, decompressed) once per scan; the files are in the OS page
+ * cache after the first run, so this measures CPU cost rather than I/O.
+ * <p/>
+ * Usage: java simpledb.CompressionBenchmark [schema file] [repetitions]
+ */
+public class CompressionBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        String schema = argv.length > 0 ? argv[0] : "imdb.schema";
+        int reps = argv.length > 1 ? Integer.parseInt(argv[1]) : 5;
+
+        Database.getCatalog().loadSchema(schema);
+        ArrayList<Integer> tableIds = new ArrayList<Integer>();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            tableIds.add(it.next());
+        }
+        long heapBytes = 0, compressedBytes = 0;
+        for (int tableId : tableIds) {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+            if (!(f instanceof HeapFile) || f instanceof CompressedFile
+                    || ((HeapFile) f).getFile().length() == 0) {
+                continue;
+            }
+            HeapFile hf = (HeapFile) f;
+            String name = Database.getCatalog().getTableName(tableId);
+            File out = File.createTempFile(name, ".cdat");
+            out.deleteOnExit();
+            CompressedFile.convert(hf.getFile(), hf.getTupleDesc(), out, hf.getPageSize());
+            CompressedFile cf = new CompressedFile(out, hf.getTupleDesc(), hf.getPageSize());
+            Database.getCatalog().addTable(cf, name + "_compressed");
+
+            long before = hf.getFile().length(), after = out.length();
+            heapBytes += before;
+            compressedBytes += after;
+            System.out.println(name + ": " + hf.numPages() + " pages, " + before
+                    + " bytes, compressed " + after + " bytes, ratio "
+                    + String.format("%.2f", (double) before / after));
+            for (int r = 0; r < reps; r++) {
+                long heapNanos = scan(hf);
+                long compressedNanos = scan(cf);
+                int tuples = count(hf);
+                System.out.println("  run " + r + ": heap " + rate(tuples, before, heapNanos)
+                        + ", compressed " + rate(tuples, before, compressedNanos));
+            }
+        }
+        if (compressedBytes > 0) {
+            System.out.println("total: " + heapBytes + " bytes, compressed "
+                    + compressedBytes + " bytes, ratio "
+                    + String.format("%.2f", (double) heapBytes / compressedBytes));
+        }
+    }
+
+    private static String rate(int tuples, long bytes, long nanos) {
+        return String.format("%.0f tuples/s (%.0f MB/s of pages)",
+                tuples * 1e9 / nanos, bytes * 1e9 / nanos / (1 << 20));
+    }
+
+    private static int count(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * @return the time to scan the table from an empty BufferPool, reading
+     * every field of every tuple
+     */
+    private static long scan(DbFile f) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = f.iterator(tid);
+        int hash = 0;
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int j = 0; j < t.getTupleDesc().numFields(); j++) {
+                hash += t.getField(j).hashCode();
+            }
+        }
+        it.close();
+        long nanos = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (hash == 42) {
+            // keeps the loop from being optimized away
+            System.out.print("");
+        }
+        return nanos;
+    }
+}
@@ -10,10 +10,27 @@ import java.util.concurrent.atomic.AtomicReference;
  * <p/>
  * Provides a set of methods that can be used to access these variables from
  * anywhere.
+ * <p/>
+ * The buffer pool is configured with system properties: {@value
+ * #POOL_PAGES_PROPERTY} sets the number of pages it holds, and {@value
+ * #OFF_HEAP_PROPERTY}=true keeps them in off-heap frames (see
+ * {@link BufferPool#BufferPool(int, boolean)}). For example, on the command
+ * line, use -Dsimpledb.BufferPool.pages=100000 -Dsimpledb.BufferPool.offHeap=true
  *
  * @Threadsafe
  */
 public class Database {
+    /**
+     * The system property giving the number of pages in the buffer pool;
+     * BufferPool.DEFAULT_PAGES if it isn't set.
+     */
+    public static final String POOL_PAGES_PROPERTY = "simpledb.BufferPool.pages";
+    /**
+     * The system property that, set to true, makes the buffer pool keep its
+     * pages off the Java heap.
+     */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.BufferPool.offHeap";
+
     private static AtomicReference<Database> _instance = new AtomicReference<Database>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
@@ -23,7 +40,9 @@ public class Database {
 
     private Database() {
         _catalog = new Catalog();
-        _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _bufferpool = new BufferPool(
+                Integer.getInteger(POOL_PAGES_PROPERTY, BufferPool.DEFAULT_PAGES),
+                Boolean.getBoolean(OFF_HEAP_PROPERTY));
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -61,11 +80,20 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, false);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool,
+     * off-heap if offHeap is set (see {@link BufferPool#BufferPool(int, boolean)}),
+     * and return it
+     */
+    public static BufferPool resetBufferPool(int pages, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF = null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, offHeap));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -81,7 +109,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._catalog.clear();
     }
 
 }
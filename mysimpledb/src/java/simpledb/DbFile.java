@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -27,6 +28,28 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Starts reading the specified page from disk, and returns without waiting
+     * for the read. Several reads can be outstanding at once, so that their
+     * I/O overlaps.
+     *
+     * @return a future that completes with the page, or exceptionally if it
+     * can't be read
+     */
+    public CompletableFuture<Page> readPageAsync(PageId id);
+
+    /**
+     * Starts pushing the specified page to disk, and returns without waiting
+     * for the write. The page's data is taken when the write starts, so the
+     * page may change afterwards; it should not be read back from the file
+     * until the write completes.
+     *
+     * @param p The page to write.
+     * @return a future that completes with the page once it is written, or
+     * exceptionally if the write fails
+     */
+    public CompletableFuture<Page> writePageAsync(Page p);
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -88,4 +111,20 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc();
+
+    /**
+     * Returns the size in bytes of the pages of this DbFile. Different tables
+     * may use different page sizes; the BufferPool accounts for the memory
+     * of each page by its size.
+     *
+     * @return the page size of this DbFile
+     */
+    public int getPageSize();
+
+    /**
+     * Releases any open file handles or other resources held by this DbFile.
+     * Called by the {@link Catalog} when the table is removed from it; a
+     * DbFile that is used again afterwards may reacquire them.
+     */
+    public void close();
 }
@@ -0,0 +1,290 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Distinct is an operator that implements SELECT DISTINCT: it returns each
+ * distinct tuple of its child once, the first time it is seen, so results
+ * stream out without waiting for the whole child to be read.
+ * <p/>
+ * The tuples seen so far are kept in a {@link GroupTable} of at most
+ * memoryPages pages. Once it is full, tuples that aren't in it are written
+ * to {@link SpillFile}s, partitioned on the hash of the whole tuple, and
+ * each partition is deduplicated in turn after the child is exhausted; those
+ * tuples come out after the rest.
+ * <p/>
+ * If the child is sorted on one of its fields, ascending or descending (see
+ * {@link SortMergeJoin#isGroupedOn}), duplicates can only occur among tuples
+ * with the same value of that field, so the table is cleared whenever that
+ * value changes and only has to hold one run of tuples at a time.
+ * <p/>
+ * A Distinct that keeps the order of its child, as under an ORDER BY, never
+ * spills, since spilled tuples would come out of order: it holds one run of
+ * a sorted child in memory, or all the distinct tuples of any other child.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of pages' worth of tuples kept in memory.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    /**
+     * Number of partitions the tuples are split into when spilling.
+     */
+    public static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Maximum number of times a partition is re-partitioned. Partitions that
+     * still have too many distinct tuples after that are deduplicated in
+     * memory anyway.
+     */
+    public static final int MAX_DEPTH = 3;
+
+    private DbIterator child;
+    private final int memoryPages;
+    private final boolean keepOrder;
+    private int[] fields;
+    // the field the child is sorted on, or -1
+    private int sortField;
+
+    private transient GroupTable seen;
+    private transient Field runKey;
+    // where tuples are read from: the child, or the partition being deduplicated
+    private transient DbIterator in;
+    private transient int depth;
+    // partitions that tuples missing from a full table are written to
+    private transient SpillFile[] spill;
+    private transient SpillFile current;
+    private transient LinkedList<SpillFile> pending;
+    private transient LinkedList<Integer> pendingDepth;
+    private transient boolean spilled;
+
+    /**
+     * Constructor.
+     *
+     * @param child the child operator
+     */
+    public Distinct(DbIterator child) {
+        this(child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child       the child operator
+     * @param memoryPages the number of pages' worth of tuples to keep in
+     *                    memory before spilling to disk
+     * @throws IllegalArgumentException if memoryPages is not positive
+     */
+    public Distinct(DbIterator child, int memoryPages) {
+        this(child, memoryPages, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child       the child operator
+     * @param memoryPages the number of pages' worth of tuples to keep in
+     *                    memory before spilling to disk
+     * @param keepOrder   true if the tuples must come out in the order of
+     *                    the child, in which case nothing is spilled
+     * @throws IllegalArgumentException if memoryPages is not positive
+     */
+    public Distinct(DbIterator child, int memoryPages, boolean keepOrder) {
+        if (memoryPages <= 0) {
+            throw new IllegalArgumentException("memoryPages must be positive");
+        }
+        this.memoryPages = memoryPages;
+        this.keepOrder = keepOrder;
+        setChildren(new DbIterator[]{child});
+    }
+
+    /**
+     * @return true if the child is sorted, and the table is cleared at each
+     * change of the sort field
+     */
+    public boolean isSortBased() {
+        return sortField >= 0;
+    }
+
+    /**
+     * @return true if the last open() had to write tuples to disk
+     */
+    public boolean hasSpilled() {
+        return spilled;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        cleanUp();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cleanUp();
+        child.rewind();
+        start();
+    }
+
+    private void start() {
+        TupleDesc td = getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        seen = new GroupTable(types);
+        runKey = null;
+        in = child;
+        depth = 0;
+        spill = null;
+        current = null;
+        pending = new LinkedList<SpillFile>();
+        pendingDepth = new LinkedList<Integer>();
+        spilled = false;
+    }
+
+    private void cleanUp() {
+        if (spill != null) {
+            for (SpillFile part : spill) {
+                part.delete();
+            }
+            spill = null;
+        }
+        if (current != null) {
+            in.close();
+            current.delete();
+            current = null;
+        }
+        if (pending != null) {
+            for (SpillFile part : pending) {
+                part.delete();
+            }
+            pending.clear();
+        }
+        seen = null;
+    }
+
+    private int budget() {
+        return Math.max(1, memoryPages * BufferPool.getPageSize() / seen.keyWidth());
+    }
+
+    /**
+     * Returns the next tuple that hasn't been returned before, or null if
+     * there are no more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        int budget = budget();
+        while (true) {
+            while (in.hasNext()) {
+                Tuple t = in.next();
+                if (sortField >= 0 && current == null) {
+                    Field key = t.getField(sortField);
+                    if (runKey == null || !key.equals(runKey)) {
+                        seen.clear();
+                        runKey = key;
+                    }
+                }
+                if (seen.find(t, fields) >= 0) {
+                    continue;
+                }
+                if (seen.size() < budget || depth >= MAX_DEPTH || keepOrder) {
+                    seen.addFound();
+                    return t;
+                }
+                spill(t);
+            }
+            if (!nextPartition()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Writes a tuple that isn't in the full table to its partition.
+     */
+    private void spill(Tuple t) throws DbException {
+        if (spill == null) {
+            spill = new SpillFile[NUM_PARTITIONS];
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                spill[i] = new SpillFile(getTupleDesc());
+            }
+            spilled = true;
+        }
+        int h = 0;
+        for (int f : fields) {
+            h = 31 * h + t.getField(f).hashCode();
+        }
+        spill[SpillFile.partition(h, depth, NUM_PARTITIONS)].add(t);
+    }
+
+    /**
+     * Finishes the current input and starts reading the next non-empty
+     * partition, with an empty table.
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (current != null) {
+            in.close();
+            current.delete();
+            current = null;
+        }
+        if (spill != null) {
+            // the partitions of the input just finished come before the rest
+            for (int i = NUM_PARTITIONS - 1; i >= 0; i--) {
+                pending.addFirst(spill[i]);
+                pendingDepth.addFirst(depth + 1);
+            }
+            spill = null;
+        }
+        while (!pending.isEmpty()) {
+            SpillFile part = pending.removeFirst();
+            int d = pendingDepth.removeFirst();
+            if (part.numTuples() == 0) {
+                part.delete();
+                continue;
+            }
+            current = part;
+            depth = d;
+            in = part.iterator();
+            in.open();
+            seen.clear();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+        int n = child.getTupleDesc().numFields();
+        fields = new int[n];
+        sortField = -1;
+        for (int i = 0; i < n; i++) {
+            fields[i] = i;
+            if (sortField < 0 && SortMergeJoin.isGroupedOn(child, i)) {
+                sortField = i;
+            }
+        }
+    }
+
+}
@@ -15,6 +15,15 @@ public interface Field extends Serializable {
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into the specified buffer at
+     * its current position, the same bytes that
+     * {@link #serialize(DataOutputStream)} writes.
+     *
+     * @param buf The buffer to write to; must be big-endian.
+     */
+    void serialize(java.nio.ByteBuffer buf);
+
     /**
      * Compare the value of this field object to the passed in value.
      *
@@ -32,6 +32,10 @@ public class Filter extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // let a scan skip the tuples that fail, without decoding them
+        if (this.child instanceof SeqScan) {
+            ((SeqScan) this.child).setPredicate(p);
+        }
         this.child.open();
         super.open();
     }
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is the memory of an off-heap {@link BufferPool}: a fixed
+ * number of frames, each big enough for one page, carved out of direct
+ * ByteBuffers. The frames are allocated {@link #CHUNK_FRAMES} at a time as
+ * they are first needed, so a big pool doesn't take its memory until it
+ * fills, and are never given back; a frame that is released is handed out
+ * again.
+ *
+ * @see FramePage
+ */
+class FrameArena {
+
+    /**
+     * The number of frames allocated together in one direct buffer.
+     */
+    static final int CHUNK_FRAMES = 256;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final ByteBuffer[] chunks;
+    // the released frames, as a stack
+    private final int[] free;
+    private int numFree;
+    // the frames from here on have never been handed out
+    private int fresh;
+
+    /**
+     * @param numFrames the number of frames
+     * @param frameSize the size of each frame in bytes
+     */
+    FrameArena(int numFrames, int frameSize) {
+        this.numFrames = numFrames;
+        this.frameSize = frameSize;
+        this.chunks = new ByteBuffer[(numFrames + CHUNK_FRAMES - 1) / CHUNK_FRAMES];
+        this.free = new int[numFrames];
+    }
+
+    int frameSize() {
+        return frameSize;
+    }
+
+    int numFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames handed out and not released
+     */
+    synchronized int framesInUse() {
+        return fresh - numFree;
+    }
+
+    /**
+     * @return a free frame, or -1 if all are in use
+     */
+    synchronized int allocate() {
+        if (numFree > 0) {
+            return free[--numFree];
+        }
+        if (fresh < numFrames) {
+            return fresh++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return a buffer over the given frame, from its start to its end
+     */
+    synchronized ByteBuffer frame(int frameNo) {
+        int c = frameNo / CHUNK_FRAMES;
+        if (chunks[c] == null) {
+            int frames = Math.min(CHUNK_FRAMES, numFrames - c * CHUNK_FRAMES);
+            chunks[c] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        ByteBuffer buf = chunks[c].duplicate();
+        int off = (frameNo % CHUNK_FRAMES) * frameSize;
+        buf.limit(off + frameSize);
+        buf.position(off);
+        return buf.slice();
+    }
+
+    /**
+     * Returns a frame to the arena; its contents are overwritten by the next
+     * page that is given it.
+     */
+    synchronized void release(int frameNo) {
+        free[numFree++] = frameNo;
+    }
+}
@@ -0,0 +1,370 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * FramePage is a page in the {@link HeapPage} format that an off-heap
+ * {@link BufferPool} keeps in a frame of its {@link FrameArena}, outside
+ * the Java heap. It holds no Tuple or Field objects: every tuple is decoded
+ * from the frame each time it is asked for, and inserts and deletes change
+ * the frame directly. A cached page thus costs the garbage collector one
+ * small object however many tuples it has, and a pool's size is bounded by
+ * the memory it is given rather than by the collector.
+ * <p/>
+ * Since tuples are decoded anew, changing a Tuple returned by the page
+ * doesn't change the page; tuples are changed by deleting and inserting
+ * them, as the operators do.
+ * <p/>
+ * When the BufferPool evicts or discards the page, the page moves its bytes
+ * into a buffer of its own on the heap before giving up its frame, so that
+ * a scan or transaction still holding it sees it unchanged while the frame
+ * is reused. Pages built from a byte array, such as before images and
+ * pages read back from the log, are on the heap from the start. All access
+ * to the bytes is synchronized on the page, so none races with that move.
+ *
+ * @see HeapPage
+ * @see FrameArena
+ */
+public class FramePage implements TuplePage {
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    private final int pageSize;
+    private final int headerSize;
+    private final int tupleSize;
+    // the offset of each field within a tuple
+    private final int[] fieldOffsets;
+
+    // the page's bytes: its frame, or a buffer on the heap
+    private ByteBuffer buf;
+    // the arena and frame the page is in, or null and -1
+    private FrameArena arena;
+    private int frameNo;
+
+    private int numEmpty;
+    // no slot below this one is empty
+    private int nextFreeSlot;
+
+    private boolean isdirty;
+    private TransactionId madedirty;
+
+    private boolean flushedToLog;
+
+    // the before image, or null if it is the same as the page's current
+    // contents
+    private byte[] oldData;
+
+    /**
+     * Creates a page on the heap from bytes in the HeapPage format.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public FramePage(HeapPageId id, byte[] data) {
+        this(id, ByteBuffer.wrap(data), null, -1);
+    }
+
+    /**
+     * Creates a page over the bytes of a frame, which hold the page in the
+     * HeapPage format.
+     *
+     * @param arena   the arena the frame belongs to, or null
+     * @param frameNo the frame in the arena, or -1
+     */
+    FramePage(HeapPageId id, ByteBuffer frame, FrameArena arena, int frameNo) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.tupleSize = td.getSize();
+        this.numSlots = (pageSize * 8) / (tupleSize * 8 + 1);
+        this.headerSize = (numSlots + 7) / 8;
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
+        if (frame.capacity() < pageSize) {
+            ByteBuffer whole = ByteBuffer.allocate(pageSize);
+            whole.put(frame.duplicate());
+            frame = whole;
+        }
+        this.buf = frame;
+        this.arena = arena;
+        this.frameNo = frameNo;
+
+        numEmpty = 0;
+        nextFreeSlot = numSlots;
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (!isSlotUsed(i)) {
+                numEmpty++;
+                nextFreeSlot = i;
+            }
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return whether the page's bytes are in a frame rather than on the heap
+     */
+    synchronized boolean inFrame() {
+        return arena != null;
+    }
+
+    /**
+     * Moves the page's bytes out of its frame into a buffer on the heap, and
+     * gives the frame back to its arena. Called by the BufferPool when the
+     * page leaves it; does nothing for a page on the heap.
+     */
+    synchronized void leaveFrame() {
+        if (arena == null) {
+            return;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(pageSize);
+        copy.put(contents());
+        buf = copy;
+        arena.release(frameNo);
+        arena = null;
+        frameNo = -1;
+    }
+
+    /**
+     * @return a buffer over the page's bytes, positioned at the start
+     */
+    private ByteBuffer contents() {
+        ByteBuffer b = buf.duplicate();
+        b.limit(pageSize);
+        b.position(0);
+        return b;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public synchronized boolean isSlotUsed(int i) {
+        return i < numSlots && (buf.get(i / 8) & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public synchronized int getNumEmptySlots() {
+        return numEmpty;
+    }
+
+    /**
+     * @return whether the page has an empty slot
+     */
+    public synchronized boolean hasRoom() {
+        return numEmpty > 0;
+    }
+
+    /**
+     * Decodes the tuple in a slot.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    synchronized Tuple tuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        for (int j = 0; j < td.numFields(); j++) {
+            t.setField(j, field(slotId, j));
+        }
+        return t;
+    }
+
+    /**
+     * Decodes one field of the tuple in a used slot.
+     */
+    private synchronized Field field(int slotId, int j) {
+        int off = headerSize + slotId * tupleSize + fieldOffsets[j];
+        if (td.getFieldType(j) == Type.INT_TYPE) {
+            return new IntField(buf.getInt(off));
+        }
+        int len = Math.max(0, Math.min(Type.STRING_LEN, buf.getInt(off)));
+        byte[] s = new byte[len];
+        ByteBuffer b = buf.duplicate();
+        b.position(off + 4);
+        b.get(s);
+        return new StringField(new String(s), Type.STRING_LEN);
+    }
+
+    /**
+     * Adds the specified tuple to the page, writing it into the page's
+     * bytes.
+     *
+     * @throws DbException if the page is full or the TupleDesc doesn't match
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (numEmpty == 0) {
+            throw new DbException("This page is full.");
+        }
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("The tuple descs don't match.");
+        }
+        int i = nextFreeSlot;
+        while (isSlotUsed(i)) {
+            i++;
+        }
+        beforeModify();
+        ByteBuffer b = buf.duplicate();
+        b.position(headerSize + i * tupleSize);
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(b);
+        }
+        buf.put(i / 8, (byte) (buf.get(i / 8) | (1 << (i % 8))));
+        numEmpty--;
+        nextFreeSlot = i + 1;
+        t.setRecordId(new RecordId(pid, i));
+        if (numEmpty == 0) {
+            freeSpaceChanged();
+        }
+    }
+
+    /**
+     * Delete the specified tuple from the page, zeroing its slot.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *                     already empty.
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int i = rid.tupleno();
+        if (!isSlotUsed(i)) {
+            throw new DbException("This slot is not being used.");
+        }
+        beforeModify();
+        buf.put(i / 8, (byte) (buf.get(i / 8) & ~(1 << (i % 8))));
+        int off = headerSize + i * tupleSize;
+        for (int k = 0; k < tupleSize; k++) {
+            buf.put(off + k, (byte) 0);
+        }
+        t.setRecordId(new RecordId(null, 0));
+        numEmpty++;
+        nextFreeSlot = Math.min(nextFreeSlot, i);
+        if (numEmpty == 1) {
+            freeSpaceChanged();
+        }
+    }
+
+    /**
+     * Tells the page's file that the page has become full, or has room
+     * again.
+     */
+    private void freeSpaceChanged() {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof HeapFile) {
+            ((HeapFile) f).updateFreeSpace(pid.pageNumber(), numEmpty > 0);
+        }
+    }
+
+    /**
+     * Return a view of this page before it was modified, on the heap
+     * -- used by recovery
+     */
+    public synchronized FramePage getBeforeImage() {
+        return new FramePage(pid, oldData != null ? oldData : getPageData());
+    }
+
+    /**
+     * Makes the current contents of the page its before image; they are
+     * copied on the next change.
+     */
+    public synchronized void setBeforeImage() {
+        oldData = null;
+    }
+
+    /**
+     * Copies the before image, if it is still the page's current contents,
+     * ahead of a change to the page.
+     */
+    private void beforeModify() {
+        if (oldData == null) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * the FramePage and HeapPage constructors read back as the same page.
+     */
+    public synchronized byte[] getPageData() {
+        byte[] data = new byte[pageSize];
+        contents().get(data);
+        return data;
+    }
+
+    public synchronized void writePageData(ByteBuffer dst) {
+        dst.put(contents());
+    }
+
+    public synchronized void markDirty(boolean dirty, TransactionId tid) {
+        this.isdirty = dirty;
+        this.madedirty = tid;
+    }
+
+    public synchronized TransactionId isDirty() {
+        return isdirty ? madedirty : null;
+    }
+
+    public synchronized void markFlushedToLog(boolean flushed) {
+        this.flushedToLog = flushed;
+    }
+
+    public synchronized boolean isFlushedToLog() {
+        return flushedToLog;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p. Only
+     * the field p tests is decoded for tuples that fail it.
+     */
+    public Iterator<Tuple> iterator(final Predicate p) {
+        return new Iterator<Tuple>() {
+            private int currIdx = 0;
+            private Tuple next = null;
+
+            public boolean hasNext() {
+                while (next == null && currIdx < numSlots) {
+                    if (isSlotUsed(currIdx) && (p == null || field(currIdx, p.getField())
+                            .compare(p.getOp(), p.getOperand()))) {
+                        next = tuple(currIdx);
+                    }
+                    currIdx++;
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a HeapFile are full, so that
+ * {@link HeapFile#insertTuple} can go straight to a page with an empty slot
+ * instead of fetching every page from the start of the file.
+ * <p/>
+ * Since all the slots of a HeapPage are the same size, the only question an
+ * insert asks is whether a page has room, so the map keeps one bit per page.
+ * It is a hint rather than part of the table: pages it knows nothing about
+ * are assumed to have room, and a page that turns out to be full when it is
+ * fetched is marked so. A page whose changes are rolled back is assumed to
+ * have room again, since an insert that filled it may have been undone, and
+ * the map is corrected whenever a page is read from disk.
+ * <p/>
+ * The map is kept in a file next to the heap file, with a ".fsm" suffix, and
+ * written back by {@link #write}.
+ */
+class FreeSpaceMap {
+
+    private final File heapFile, file;
+    // bit i is set if page i is known to be full
+    private BitSet full;
+    private boolean dirty;
+
+    /**
+     * Loads the free space map of the given heap file, or starts an empty
+     * one if it has none.
+     */
+    FreeSpaceMap(File heapFile) {
+        this.heapFile = heapFile;
+        file = new File(heapFile.getPath() + ".fsm");
+        full = new BitSet();
+        // a heap file written after its map was saved (e.g. by a process that
+        // crashed before saving it again) may have changed in any way
+        if (file.exists() && file.lastModified() >= heapFile.lastModified()) {
+            try {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    byte[] bytes = new byte[(int) file.length()];
+                    in.readFully(bytes);
+                    full = BitSet.valueOf(bytes);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // only a hint; start over
+                full = new BitSet();
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * @return the file the map is stored in
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * @param start    the first page to consider
+     * @param numPages the number of pages in the heap file
+     * @return the first page at or after start that may have an empty slot,
+     * or -1 if all the pages from start on are full
+     */
+    synchronized int findPage(int start, int numPages) {
+        int pgNo = full.nextClearBit(start);
+        return pgNo < numPages ? pgNo : -1;
+    }
+
+    /**
+     * Records whether a page has an empty slot.
+     */
+    synchronized void update(int pgNo, boolean hasRoom) {
+        if (full.get(pgNo) == hasRoom) {
+            full.set(pgNo, !hasRoom);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the map to its file if it has changed since it was loaded or
+     * last written. Nothing is written if the heap file itself is gone.
+     */
+    synchronized void write() throws IOException {
+        if (!dirty || !heapFile.exists()) {
+            return;
+        }
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(full.toByteArray());
+        } finally {
+            out.close();
+        }
+        dirty = false;
+    }
+}
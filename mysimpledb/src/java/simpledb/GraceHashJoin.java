@@ -0,0 +1,358 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * GraceHashJoin is an equality join for inputs whose build side may not fit in
+ * memory. It starts out like {@link HashEquiJoin}, reading the right (inner)
+ * child into a hash table; if the inner child turns out to be larger than the
+ * memory budget, both children are partitioned on the hash of their join
+ * field into {@link SpillFile}s, and the join is then computed one partition
+ * pair at a time. A build partition that is still too large is partitioned
+ * again with a different hash, up to MAX_DEPTH levels.
+ */
+public class GraceHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of pages' worth of build tuples kept in memory.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    /**
+     * Number of partitions each side is split into when spilling.
+     */
+    public static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Maximum number of times a partition is re-partitioned. Partitions that
+     * are still too large after that (e.g. a single very frequent key) are
+     * joined in memory anyway.
+     */
+    public static final int MAX_DEPTH = 3;
+
+    private DbIterator child1, child2;
+    private JoinPredicate p;
+    private TupleDesc td;
+    private final int memoryPages;
+
+    private transient JoinHashTable table;
+    private transient DbIterator probe;
+    private transient Tuple child1tuple;
+    private transient Iterator<Tuple> listIt;
+
+    /**
+     * Partition pairs produced by the first partitioning pass; kept until
+     * close() so that rewind() doesn't have to re-read the children.
+     */
+    private transient ArrayList<SpillFile[]> partitions;
+    private transient LinkedList<SpillFile[]> pending;
+    private transient LinkedList<Integer> pendingDepth;
+    private transient SpillFile[] current;
+    private transient boolean spilled;
+
+    /**
+     * Constructor. Uses DEFAULT_MEMORY_PAGES as the memory budget.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p           The predicate to use to join the children
+     * @param child1      Iterator for the left(outer) relation to join
+     * @param child2      Iterator for the right(inner) relation to join
+     * @param memoryPages The number of pages' worth of inner tuples that may
+     *                    be held in memory at once
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public GraceHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                         int memoryPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("GraceHashJoin only supports equality predicates");
+        }
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("memoryPages must be positive");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.memoryPages = memoryPages;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if card tuples of the given TupleDesc fit in a memory
+     * budget of memoryPages pages
+     */
+    public static boolean fitsInMemory(long card, TupleDesc td, int memoryPages) {
+        return card * td.getSize() <= (long) memoryPages * BufferPool.getPageSize();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     * alias or table name.
+     */
+    public String getJoinField1Name() {
+        return Join.joinFieldName(child1, p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     * alias or table name.
+     */
+    public String getJoinField2Name() {
+        return Join.joinFieldName(child2, p.getField2());
+    }
+
+    /**
+     * @return true if the last open() had to partition its inputs to disk
+     */
+    public boolean hasSpilled() {
+        return spilled;
+    }
+
+    private int budgetTuples() {
+        return Math.max(1, memoryPages * BufferPool.getPageSize()
+                / child2.getTupleDesc().getSize());
+    }
+
+    private JoinHashTable newTable() {
+        return new JoinHashTable(p.getField2(),
+                child2.getTupleDesc().getFieldType(p.getField2()));
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+
+        int budget = budgetTuples();
+        ArrayList<Tuple> buffered = new ArrayList<Tuple>();
+        while (buffered.size() <= budget && child2.hasNext()) {
+            buffered.add(child2.next());
+        }
+        child1tuple = null;
+        listIt = null;
+        if (buffered.size() <= budget) {
+            // the whole inner relation fits; this is just a HashEquiJoin
+            spilled = false;
+            table = newTable();
+            for (Tuple t : buffered) {
+                table.add(t);
+            }
+            probe = child1;
+            return;
+        }
+
+        spilled = true;
+        SpillFile[] buildParts = newPartitions(child2.getTupleDesc());
+        for (Tuple t : buffered) {
+            buildParts[partition(t.getField(p.getField2()), 0)].add(t);
+        }
+        buffered = null;
+        while (child2.hasNext()) {
+            Tuple t = child2.next();
+            buildParts[partition(t.getField(p.getField2()), 0)].add(t);
+        }
+        SpillFile[] probeParts = newPartitions(child1.getTupleDesc());
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            probeParts[partition(t.getField(p.getField1()), 0)].add(t);
+        }
+        partitions = new ArrayList<SpillFile[]>();
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            partitions.add(new SpillFile[]{buildParts[i], probeParts[i]});
+        }
+        startPartitions();
+    }
+
+    private SpillFile[] newPartitions(TupleDesc desc) throws DbException {
+        SpillFile[] parts = new SpillFile[NUM_PARTITIONS];
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            parts[i] = new SpillFile(desc);
+        }
+        return parts;
+    }
+
+    private static int partition(Field f, int depth) {
+        return SpillFile.partition(f, depth, NUM_PARTITIONS);
+    }
+
+    private void startPartitions() {
+        pending = new LinkedList<SpillFile[]>(partitions);
+        pendingDepth = new LinkedList<Integer>();
+        for (int i = 0; i < partitions.size(); i++) {
+            pendingDepth.add(1);
+        }
+        current = null;
+        table = null;
+        probe = null;
+    }
+
+    /**
+     * Loads the next partition pair whose build side fits in memory,
+     * re-partitioning oversized build sides along the way.
+     *
+     * @return false if there are no partitions left
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        closeCurrent();
+        while (!pending.isEmpty()) {
+            SpillFile[] pair = pending.removeFirst();
+            int depth = pendingDepth.removeFirst();
+            if (pair[0].numTuples() == 0 || pair[1].numTuples() == 0) {
+                discard(pair);
+                continue;
+            }
+            if (pair[0].numTuples() > budgetTuples() && depth < MAX_DEPTH) {
+                SpillFile[] buildParts = newPartitions(child2.getTupleDesc());
+                SpillFile[] probeParts = newPartitions(child1.getTupleDesc());
+                repartition(pair[0], buildParts, p.getField2(), depth);
+                repartition(pair[1], probeParts, p.getField1(), depth);
+                discard(pair);
+                for (int i = NUM_PARTITIONS - 1; i >= 0; i--) {
+                    pending.addFirst(new SpillFile[]{buildParts[i], probeParts[i]});
+                    pendingDepth.addFirst(depth + 1);
+                }
+                continue;
+            }
+            current = pair;
+            table = newTable();
+            DbIterator build = pair[0].iterator();
+            build.open();
+            table.addAll(build);
+            build.close();
+            probe = pair[1].iterator();
+            probe.open();
+            return true;
+        }
+        return false;
+    }
+
+    private void repartition(SpillFile in, SpillFile[] out, int field, int depth)
+            throws DbException, TransactionAbortedException {
+        DbIterator it = in.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            out[partition(t.getField(field), depth)].add(t);
+        }
+        it.close();
+    }
+
+    /**
+     * Deletes the files of a partition pair, unless they belong to the first
+     * partitioning pass and are still needed for rewind().
+     */
+    private void discard(SpillFile[] pair) {
+        if (!partitions.contains(pair)) {
+            pair[0].delete();
+            pair[1].delete();
+        }
+    }
+
+    private void closeCurrent() {
+        if (current != null) {
+            probe.close();
+            discard(current);
+            current = null;
+        }
+        probe = null;
+        table = null;
+    }
+
+    public void close() {
+        if (spilled) {
+            closeCurrent();
+            if (pending != null) {
+                for (SpillFile[] pair : pending) {
+                    discard(pair);
+                }
+            }
+            if (partitions != null) {
+                for (SpillFile[] pair : partitions) {
+                    pair[0].delete();
+                    pair[1].delete();
+                }
+            }
+        }
+        partitions = null;
+        pending = null;
+        pendingDepth = null;
+        table = null;
+        probe = null;
+        child1tuple = null;
+        listIt = null;
+        child1.close();
+        child2.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1tuple = null;
+        listIt = null;
+        if (spilled) {
+            closeCurrent();
+            for (SpillFile[] pair : pending) {
+                discard(pair);
+            }
+            startPartitions();
+        } else {
+            child1.rewind();
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of the joining tuples from
+     * the left and right relation, as in {@link Join}. When the join has
+     * spilled, tuples come out grouped by partition rather than in the order
+     * of the outer child.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (listIt == null || !listIt.hasNext()) {
+            if (probe == null || !probe.hasNext()) {
+                if (!spilled || !nextPartition()) {
+                    return null;
+                }
+                continue;
+            }
+            child1tuple = probe.next();
+            ArrayList<Tuple> matches = table.probe(child1tuple.getField(p.getField1()));
+            listIt = matches == null ? null : matches.iterator();
+        }
+        return Join.joinTuples(td, child1tuple, listIt.next());
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
@@ -0,0 +1,234 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * GroupTable numbers the distinct values of a composite key made of some
+ * fields of a tuple, in the order they are first added. It is used by
+ * operators that group or deduplicate on several fields at once.
+ * <p/>
+ * A key is stored in the fixed-width binary form that {@link Type#parse}
+ * reads, and the keys are packed back to back into one byte array. Keys are
+ * found through an open-addressing table of key numbers, so looking up a
+ * tuple doesn't allocate any objects.
+ */
+class GroupTable {
+
+    private static final int INITIAL_KEYS = 16;
+
+    private final Type[] types;
+    private final int keyWidth;
+
+    // the key numbered g is keys[g * keyWidth, (g + 1) * keyWidth)
+    private byte[] keys;
+    private int[] hashes;
+    // key number + 1 of the key in each slot, or 0 if the slot is empty
+    private int[] table;
+    private int size;
+
+    // the key of the last find(), and the slot it was found in or belongs in
+    private final KeyBuffer key;
+    private final DataOutputStream keyOut;
+    private int lastHash, lastSlot;
+
+    /**
+     * @param types the types of the fields that make up a key
+     */
+    GroupTable(Type[] types) {
+        this.types = types.clone();
+        int width = 0;
+        for (Type t : types) {
+            width += t.getLen();
+        }
+        keyWidth = width;
+        key = new KeyBuffer(keyWidth);
+        keyOut = new DataOutputStream(key);
+        clear();
+    }
+
+    /**
+     * @return the number of keys in the table
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes a key takes up in the table
+     */
+    int keyWidth() {
+        return keyWidth;
+    }
+
+    /**
+     * Removes all the keys.
+     */
+    void clear() {
+        if (table != null && table.length == INITIAL_KEYS * 2) {
+            // still the initial size; reuse it, since some callers clear often
+            Arrays.fill(table, 0);
+        } else {
+            keys = new byte[INITIAL_KEYS * keyWidth];
+            hashes = new int[INITIAL_KEYS];
+            table = new int[INITIAL_KEYS * 2];
+        }
+        size = 0;
+    }
+
+    /**
+     * Looks up the key made of the given fields of tup.
+     *
+     * @return the number of the key, or -1 if it isn't in the table; in that
+     * case {@link #addFound} adds it
+     */
+    int find(Tuple tup, int[] fields) {
+        key.reset();
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                Field f = tup.getField(fields[i]);
+                if (types[i] == Type.INT_TYPE) {
+                    keyOut.writeInt(((IntField) f).getValue());
+                } else {
+                    // not StringField.serialize, whose width depends on the
+                    // field's maxSize rather than on its value
+                    String v = ((StringField) f).getValue();
+                    if (v.length() > Type.STRING_LEN)
+                        v = v.substring(0, Type.STRING_LEN);
+                    keyOut.writeInt(v.length());
+                    keyOut.writeBytes(v);
+                }
+                key.pad(types[i].getLen());
+            }
+        } catch (IOException e) {
+            // a KeyBuffer doesn't throw
+            throw new IllegalStateException(e);
+        }
+
+        lastHash = key.hash();
+        int mask = table.length - 1;
+        int slot = lastHash & mask;
+        while (table[slot] != 0) {
+            int g = table[slot] - 1;
+            if (hashes[g] == lastHash && key.matches(keys, g * keyWidth)) {
+                return g;
+            }
+            slot = (slot + 1) & mask;
+        }
+        lastSlot = slot;
+        return -1;
+    }
+
+    /**
+     * Adds the key of the last call to {@link #find}, which must have
+     * returned -1.
+     *
+     * @return the number of the new key, which is size() - 1
+     */
+    int addFound() {
+        int g = size++;
+        if (g == hashes.length) {
+            keys = Arrays.copyOf(keys, hashes.length * 2 * keyWidth);
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        key.copyTo(keys, g * keyWidth);
+        hashes[g] = lastHash;
+        table[lastSlot] = g + 1;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return g;
+    }
+
+    /**
+     * Looks up the key made of the given fields of tup, adding it if it isn't
+     * in the table yet.
+     *
+     * @return the number of the key; size() - 1 if it was added
+     */
+    int add(Tuple tup, int[] fields) {
+        int g = find(tup, fields);
+        return g >= 0 ? g : addFound();
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int g = 0; g < size; g++) {
+            int slot = hashes[g] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = g + 1;
+        }
+    }
+
+    /**
+     * Sets fields firstField, firstField + 1, ... of tup to the fields of the
+     * key numbered g.
+     */
+    void getKey(int g, Tuple tup, int firstField) {
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(keys, g * keyWidth, keyWidth));
+        try {
+            for (int i = 0; i < types.length; i++) {
+                tup.setField(firstField + i, types[i].parse(in));
+            }
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The buffer a key is serialized into before it is looked up.
+     */
+    private static class KeyBuffer extends OutputStream {
+        private final byte[] buf;
+        private int pos, fieldStart;
+
+        KeyBuffer(int size) {
+            buf = new byte[size];
+        }
+
+        void reset() {
+            pos = fieldStart = 0;
+        }
+
+        public void write(int b) {
+            buf[pos++] = (byte) b;
+        }
+
+        /**
+         * Zero-fills the rest of a field of the given width and starts the
+         * next field.
+         */
+        void pad(int width) {
+            fieldStart += width;
+            while (pos < fieldStart) {
+                buf[pos++] = 0;
+            }
+        }
+
+        int hash() {
+            int h = 0x811C9DC5;
+            for (int i = 0; i < pos; i++) {
+                h = (h ^ buf[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        boolean matches(byte[] keys, int off) {
+            for (int i = 0; i < pos; i++) {
+                if (keys[off + i] != buf[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void copyTo(byte[] keys, int off) {
+            System.arraycopy(buf, 0, keys, off, pos);
+        }
+    }
+}
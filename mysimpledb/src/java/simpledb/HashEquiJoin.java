@@ -3,12 +3,23 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an in-memory hash join for equality
+ * predicates. The right (inner) child is read once into a hash table keyed on
+ * its join field; the left (outer) child is then streamed and each of its
+ * tuples probes the table. INT_TYPE join fields are hashed on their primitive
+ * value (see {@link JoinHashTable}).
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private DbIterator child1, child2;
+    private JoinPredicate p;
+    private TupleDesc td;
+
+    private transient JoinHashTable table;
+    private transient Tuple child1tuple;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -16,43 +27,71 @@ public class HashEquiJoin extends Operator {
      * @param p      The predicate to use to join the children
      * @param child1 Iterator for the left(outer) relation to join
      * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        // some code goes here
-    	throw new UnsupportedOperationException();
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("HashEquiJoin only supports equality predicates");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
-        // some code goes here
-        return null;
+        return p;
     }
 
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        return td;
     }
 
+    /**
+     * @return the field name of join field1. Should be quantified by
+     * alias or table name.
+     */
     public String getJoinField1Name() {
-        // some code goes here
-        return null;
+        return Join.joinFieldName(child1, p.getField1());
     }
 
+    /**
+     * @return the field name of join field2. Should be quantified by
+     * alias or table name.
+     */
     public String getJoinField2Name() {
-        // some code goes here
-        return null;
+        return Join.joinFieldName(child2, p.getField2());
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        child1.open();
+        child2.open();
+        table = new JoinHashTable(p.getField2(),
+                child2.getTupleDesc().getFieldType(p.getField2()));
+        table.addAll(child2);
+        child1tuple = null;
+        listIt = null;
+        super.open();
     }
 
     public void close() {
-        // some code goes here
+        child1.close();
+        child2.close();
+        table = null;
+        child1tuple = null;
+        listIt = null;
+        super.close();
     }
 
+    /**
+     * Rewinds only the outer child; the hash table built from the inner child
+     * is kept.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        child1.rewind();
+        child1tuple = null;
+        listIt = null;
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -60,8 +99,7 @@ public class HashEquiJoin extends Operator {
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
      * <p/>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -76,19 +114,27 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        while (listIt == null || !listIt.hasNext()) {
+            if (!child1.hasNext()) {
+                return null;
+            }
+            child1tuple = child1.next();
+            ArrayList<Tuple> matches = table.probe(child1tuple.getField(p.getField1()));
+            listIt = matches == null ? null : matches.iterator();
+        }
+        return Join.joinTuples(td, child1tuple, listIt.next());
     }
 
     @Override
     public DbIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new DbIterator[]{child1, child2};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
-        // some code goes here
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
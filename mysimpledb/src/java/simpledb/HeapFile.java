@@ -1,9 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-
-import simpledb.HeapPage.myIterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -11,6 +18,37 @@ import simpledb.HeapPage.myIterator;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p/>
+ * By default pages are read through a read-only memory mapping of the file,
+ * so a BufferPool miss is a copy out of the page cache rather than an
+ * open/seek/read/close of the file. The mapping is redone when a page past
+ * its end is requested and the file has grown. {@link #setMemoryMapped}
+ * switches a HeapFile to reading each page with a positional read instead.
+ * <p/>
+ * A HeapFile keeps one FileChannel open for all its reads, writes and
+ * mappings, and transfers pages through a small shared pool of direct
+ * buffers. The channel is opened on first use and closed by {@link #close},
+ * which the {@link Catalog} calls when the table is dropped.
+ * {@link #readPageAsync} and {@link #writePageAsync} go through a second,
+ * AsynchronousFileChannel, opened the first time they are used, so a caller
+ * can have several page transfers outstanding at once.
+ * <p/>
+ * Inserts find a page with room through the file's {@link FreeSpaceMap},
+ * which HeapPage keeps up to date as slots fill and empty, and which is
+ * saved next to the file when it is closed.
+ * <p/>
+ * The file grows by {@link #EXTENT_PAGES} zeroed pages at a time, and new
+ * pages are handed out from that extent as empty frames in the BufferPool,
+ * so appending pages doesn't extend the file or write synchronously once
+ * per page. The number of pages in use is kept in memory; when a file is
+ * opened it is taken to end after its last page with a used slot.
+ * <p/>
+ * Each HeapFile has its own page size, which defaults to
+ * {@link BufferPool#getPageSize}; see {@link #getPageSize}.
+ * <p/>
+ * Scans prefetch the pages ahead of them into the BufferPool in the
+ * background (see {@link ReadAhead}), unless
+ * {@link #setReadAhead} turns that off.
  *
  * @author Sam Madden
  * @see simpledb.HeapPage#HeapPage
@@ -20,6 +58,29 @@ public class HeapFile implements DbFile {
     
 	private File file;
 	private TupleDesc td;
+	// the page size, or 0 to follow BufferPool.getPageSize()
+	private final int pageSize;
+	private boolean memoryMapped = true;
+	private boolean readAhead = true;
+	// the current mapping of the file, or null if it hasn't been mapped yet
+	private MappedByteBuffer mapping;
+	private FileChannel channel;
+	private AsynchronousFileChannel asyncChannel;
+	private FreeSpaceMap freeSpace;
+
+	/**
+	 * Number of pages the file is extended by when it runs out of room.
+	 */
+	public static final int EXTENT_PAGES = 32;
+
+	// the pages in use, and the pages the file has been extended to; both -1
+	// until the file is first looked at
+	private int numPages = -1;
+	private int allocatedPages = -1;
+
+	// page buffers for positional reads and writes, shared by all HeapFiles
+	private static final int MAX_POOLED_BUFFERS = 16;
+	private static final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<ByteBuffer>();
 	/**
      * Constructs a heap file backed by the specified file.
      *
@@ -29,6 +90,25 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
         this.file = f;
         this.td = td;
+        this.pageSize = 0;
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, with pages of the
+     * given size.
+     *
+     * @param f        the file that stores the on-disk backing store for this
+     *                 heap file.
+     * @param pageSize the size of the file's pages in bytes
+     * @throws IllegalArgumentException if pageSize is not positive
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive: " + pageSize);
+        }
+        this.file = f;
+        this.td = td;
+        this.pageSize = pageSize;
     }
 
     /**
@@ -62,96 +142,504 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Returns the size of this file's pages: the size it was constructed
+     * with, or else the current {@link BufferPool#getPageSize}.
+     */
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    /**
+     * Chooses how pages are read: through a memory mapping of the file
+     * (the default), or with a positional read of each page.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped) {
+            synchronized (this) {
+                mapping = null;
+            }
+        }
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Chooses whether scans of the file prefetch the pages ahead of them in
+     * the background (the default); see {@link ReadAhead}. Takes effect for
+     * iterators opened afterwards.
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Closes the file's channel and drops its mapping. The HeapFile can
+     * still be used afterwards; the channel is reopened when it is needed.
+     */
+    public synchronized void close() {
+        mapping = null;
+        if (freeSpace != null) {
+            try {
+                freeSpace.write();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+        if (asyncChannel != null) {
+            try {
+                asyncChannel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            asyncChannel = null;
+        }
+    }
+
+    /**
+     * Returns the channel of the file, opening it if needed; it is also
+     * reopened if an interrupted read or write closed it.
+     *
+     * @param create whether to create the file if it doesn't exist
+     */
+    synchronized FileChannel channel(boolean create) throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            if (create) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            } else {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the asynchronous channel of the file, opening it if needed.
+     *
+     * @param create whether to create the file if it doesn't exist
+     */
+    synchronized AsynchronousFileChannel asyncChannel(boolean create) throws IOException {
+        if (asyncChannel == null || !asyncChannel.isOpen()) {
+            if (create) {
+                asyncChannel = AsynchronousFileChannel.open(file.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE);
+            } else {
+                asyncChannel = AsynchronousFileChannel.open(file.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+        }
+        return asyncChannel;
+    }
+
+    /**
+     * Reads from the file at the given offset into the rest of a buffer,
+     * issuing further reads until the buffer is full or the file ends.
+     *
+     * @return a future that completes with the buffer, which is left
+     * partly unfilled if the file ended
+     */
+    static CompletableFuture<ByteBuffer> readFully(final AsynchronousFileChannel ch,
+                                                   final ByteBuffer buf, final long offset) {
+        final CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+        final int start = buf.position();
+        ch.read(buf, offset, null, new CompletionHandler<Integer, Void>() {
+            public void completed(Integer n, Void attachment) {
+                if (n < 0 || !buf.hasRemaining()) {
+                    result.complete(buf);
+                } else {
+                    ch.read(buf, offset + buf.position() - start, null, this);
+                }
+            }
+
+            public void failed(Throwable e, Void attachment) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Writes the rest of a buffer to the file at the given offset, issuing
+     * further writes until all of it is written.
+     *
+     * @return a future that completes with the buffer
+     */
+    static CompletableFuture<ByteBuffer> writeFully(final AsynchronousFileChannel ch,
+                                                    final ByteBuffer buf, final long offset) {
+        final CompletableFuture<ByteBuffer> result = new CompletableFuture<ByteBuffer>();
+        final int start = buf.position();
+        ch.write(buf, offset, null, new CompletionHandler<Integer, Void>() {
+            public void completed(Integer n, Void attachment) {
+                if (!buf.hasRemaining()) {
+                    result.complete(buf);
+                } else {
+                    ch.write(buf, offset + buf.position() - start, null, this);
+                }
+            }
+
+            public void failed(Throwable e, Void attachment) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        result.completeExceptionally(e);
+        return result;
+    }
+
+    private synchronized FreeSpaceMap freeSpaceMap() {
+        if (freeSpace == null) {
+            freeSpace = new FreeSpaceMap(file);
+        }
+        return freeSpace;
+    }
+
+    /**
+     * Records in the free space map whether a page has an empty slot. Called
+     * by HeapPage when its last empty slot is filled or a slot is freed.
+     */
+    void updateFreeSpace(int pgNo, boolean hasRoom) {
+        freeSpaceMap().update(pgNo, hasRoom);
+    }
+
+    /**
+     * Creates a page from data read from disk, correcting the free space map
+     * with what the page really holds.
+     */
+    TuplePage newPage(PageId pid, byte[] data) throws IOException {
+        TuplePage page = createPage((HeapPageId) pid, data);
+        updateFreeSpace(pid.pageNumber(), page.hasRoom());
+        return page;
+    }
+
+    /**
+     * Creates a page of this file's format from its bytes. Subclasses that
+     * store their pages in another format override this; everything else
+     * about the file works the same.
+     */
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * @return a pooled buffer of at least the given size, with its limit set
+     * to the size
+     */
+    private static ByteBuffer takeBuffer(int size) {
+        synchronized (bufferPool) {
+            ByteBuffer buf = bufferPool.poll();
+            if (buf != null && buf.capacity() >= size) {
+                buf.clear();
+                buf.limit(size);
+                return buf;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private static void returnBuffer(ByteBuffer buf) {
+        synchronized (bufferPool) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                bufferPool.push(buf);
+            }
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-    	InputStream input = null;
-    	try {
-    		input = new BufferedInputStream(new FileInputStream(file), BufferPool.PAGE_SIZE);
-    		int pgNo = pid.pageNumber();
-    		long offset = (pgNo) * BufferPool.PAGE_SIZE;
-    		byte bytearray[] = new byte[BufferPool.PAGE_SIZE];
-    		try {
-    			input.skip(offset);
-    			input.read(bytearray);
-    			HeapPage heappage = new HeapPage((HeapPageId)pid, bytearray);
-    			
-    			return heappage;
-    		}
-    		catch (IOException e){
-    			return null;
-    		}
-    		
-    	}
-    	catch (FileNotFoundException e) {
-    		System.out.println("File Not Found Exception");
-    		return null;
-    	}
-    	finally {
-    		try {
-    			input.close();
-    		}
-    		catch (IOException e){
-    		}
-    	}
+        if (memoryMapped) {
+            return readMappedPage(pid);
+        }
+        int pageSize = getPageSize();
+        long offset = (long) pid.pageNumber() * pageSize;
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = takeBuffer(pageSize);
+        try {
+            FileChannel ch = channel(false);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, offset + buf.position()) < 0) {
+                    // the rest of a page past the end of the file reads as zeroes
+                    break;
+                }
+            }
+            buf.flip();
+            buf.get(data, 0, buf.limit());
+            return newPage(pid, data);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    /**
+     * Starts a positional read of a page through the file's asynchronous
+     * channel, whether or not the file is memory mapped. As with readPage,
+     * the part of a page past the end of the file reads as zeroes.
+     */
+    public CompletableFuture<Page> readPageAsync(final PageId pid) {
+        final int pageSize = getPageSize();
+        final ByteBuffer buf = takeBuffer(pageSize);
+        CompletableFuture<ByteBuffer> read;
+        try {
+            read = readFully(asyncChannel(false), buf, (long) pid.pageNumber() * pageSize);
+        } catch (IOException e) {
+            returnBuffer(buf);
+            return failedFuture(e);
+        }
+        // the buffer of a failed read isn't returned to the pool, since the
+        // channel may still be using it
+        return read.thenApply(new Function<ByteBuffer, Page>() {
+            public Page apply(ByteBuffer buf) {
+                try {
+                    byte[] data = new byte[pageSize];
+                    buf.flip();
+                    buf.get(data, 0, buf.limit());
+                    return newPage(pid, data);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                } finally {
+                    returnBuffer(buf);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a page by copying it out of the mapping of the file. As with a
+     * positional read, the part of a page that lies past the end of the file
+     * reads as zeroes.
+     */
+    private Page readMappedPage(PageId pid) {
+        int pageSize = getPageSize();
+        long offset = (long) pid.pageNumber() * pageSize;
+        byte[] data = new byte[pageSize];
+        try {
+            MappedByteBuffer map = mapping(offset + pageSize);
+            if (map == null) {
+                // too big to map in one piece
+                setMemoryMapped(false);
+                return readPage(pid);
+            }
+            if (offset < map.capacity()) {
+                // a duplicate has its own position, so concurrent reads don't interfere
+                ByteBuffer buf = map.duplicate();
+                buf.position((int) offset);
+                buf.get(data, 0, (int) Math.min(pageSize, map.capacity() - offset));
+            }
+            return newPage(pid, data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the mapping of the file, remapping it first if it ends before
+     * the given offset and the file has grown since it was mapped.
+     *
+     * @return the mapping, or null if the file is too big to map as one
+     * buffer
+     */
+    private synchronized MappedByteBuffer mapping(long end) throws IOException {
+        FileChannel ch = channel(false);
+        if (mapping != null && (end <= mapping.capacity()
+                || ch.size() == mapping.capacity())) {
+            return mapping;
+        }
+        long length = ch.size();
+        if (length > Integer.MAX_VALUE) {
+            return null;
+        }
+        mapping = ch.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        return mapping;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int offset = page.getId().pageNumber()*BufferPool.getPageSize();
-        RandomAccessFile randfile = new RandomAccessFile(file, "rw");
-        randfile.seek(offset);
-        randfile.write(page.getPageData());
-        randfile.close();
+        int pgNo = page.getId().pageNumber();
+        synchronized (this) {
+            numPages = Math.max(numPages(), pgNo + 1);
+            allocatedPages = Math.max(allocatedPages, pgNo + 1);
+        }
+        int pageSize = getPageSize();
+        long offset = (long) pgNo * pageSize;
+        ByteBuffer buf = takeBuffer(pageSize);
+        try {
+            page.writePageData(buf);
+            buf.flip();
+            FileChannel ch = channel(true);
+            while (buf.hasRemaining()) {
+                ch.write(buf, offset + buf.position());
+            }
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public CompletableFuture<Page> writePageAsync(final Page page) {
+        int pgNo = page.getId().pageNumber();
+        synchronized (this) {
+            numPages = Math.max(numPages(), pgNo + 1);
+            allocatedPages = Math.max(allocatedPages, pgNo + 1);
+        }
+        int pageSize = getPageSize();
+        ByteBuffer buf = takeBuffer(pageSize);
+        page.writePageData(buf);
+        buf.flip();
+        CompletableFuture<ByteBuffer> write;
+        try {
+            write = writeFully(asyncChannel(true), buf, (long) pgNo * pageSize);
+        } catch (IOException e) {
+            returnBuffer(buf);
+            return failedFuture(e);
+        }
+        return write.thenApply(new Function<ByteBuffer, Page>() {
+            public Page apply(ByteBuffer buf) {
+                returnBuffer(buf);
+                return page;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile. Zeroed pages at the end of
+     * the file that haven't been handed out yet don't count.
+     */
+    public synchronized int numPages() {
+        if (numPages < 0) {
+            countPages();
+        }
+        return numPages;
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Works out the page counts from the file: trailing pages with no used
+     * slots are spare pages of the last extent (or pages whose tuples were
+     * all deleted) and aren't in use.
      */
-    public int numPages() {
-        return (int) Math.ceil(this.file.length()/(long) BufferPool.PAGE_SIZE);
+    private synchronized void countPages() {
+        int pageSize = getPageSize();
+        allocatedPages = (int) ((file.length() + pageSize - 1) / pageSize);
+        numPages = allocatedPages;
+        if (numPages == 0) {
+            return;
+        }
+        ByteBuffer buf = takeBuffer(pageSize);
+        try {
+            FileChannel ch = channel(false);
+            while (numPages > 0) {
+                buf.clear();
+                buf.limit(pageSize);
+                long offset = (long) (numPages - 1) * pageSize;
+                while (buf.hasRemaining()) {
+                    if (ch.read(buf, offset + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                buf.flip();
+                boolean empty = true;
+                while (empty && buf.hasRemaining()) {
+                    empty = buf.get() == 0;
+                }
+                if (!empty) {
+                    break;
+                }
+                numPages--;
+            }
+        } catch (IOException e) {
+            numPages = allocatedPages;
+        } finally {
+            returnBuffer(buf);
+        }
+    }
+
+    /**
+     * Hands out the next unused page of the file, extending the file by an
+     * extent of zeroed pages first if there are none left. A subclass that
+     * doesn't lay pages out at fixed offsets overrides this along with
+     * readPage, writePage and numPages.
+     *
+     * @return the number of the page
+     */
+    synchronized int allocatePage() throws IOException {
+        int pgNo = numPages();
+        if (pgNo >= allocatedPages) {
+            int pageSize = getPageSize();
+            ByteBuffer zeroes = ByteBuffer.allocate(EXTENT_PAGES * pageSize);
+            long offset = (long) allocatedPages * pageSize;
+            FileChannel ch = channel(true);
+            while (zeroes.hasRemaining()) {
+                ch.write(zeroes, offset + zeroes.position());
+            }
+            allocatedPages += EXTENT_PAGES;
+        }
+        numPages++;
+        return pgNo;
     }
 
     // see DbFile.java for javadocs
-   public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-	   
-	   int pgNo = 0;
-	   Permissions perm = Permissions.READ_ONLY;
-	   HeapPageId heappageid = new HeapPageId(this.getId(), pgNo);
-	   HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, heappageid, perm);
-	   boolean mustAddNewPage = false;
-	   while (page.getNumEmptySlots() == 0) {
-		   Database.getBufferPool().releasePage(tid, heappageid);
-		   pgNo++;
-		   heappageid = new HeapPageId(this.getId(), pgNo);
-		   if (pgNo == this.numPages()) {
-			   mustAddNewPage = true;
-			   break;
-		   }
-		   page = (HeapPage)Database.getBufferPool().getPage(tid, heappageid, perm);
-	   }
-	   
-	   if (mustAddNewPage) {
-		   byte[] pagedata = HeapPage.createEmptyPageData(); 
-		   page = new HeapPage(heappageid, pagedata);
-		   page.insertTuple(t);
-		   this.writePage(page);
-	   }
-	   else {
-		   heappageid = new HeapPageId(this.getId(), pgNo);
-		   page = (HeapPage)Database.getBufferPool().getPage(tid, heappageid, Permissions.READ_WRITE);
-		   page.insertTuple(t);
-	   }
-	   ArrayList<Page> pageArrayList = new ArrayList<Page>();
-       pageArrayList.add(page);
-       return pageArrayList; 
-   }
+        // look for room only on the pages the free space map doesn't know to be full
+        int numPages = numPages();
+        int pgNo = freeSpaceMap().findPage(0, numPages);
+        TuplePage page = null;
+        while (pgNo >= 0) {
+            HeapPageId heappageid = new HeapPageId(getId(), pgNo);
+            page = (TuplePage) Database.getBufferPool().getPage(tid, heappageid,
+                    Permissions.READ_ONLY);
+            if (page.hasRoom()) {
+                page = (TuplePage) Database.getBufferPool().getPage(tid, heappageid,
+                        Permissions.READ_WRITE);
+                page.insertTuple(t);
+                break;
+            }
+            Database.getBufferPool().releasePage(tid, heappageid);
+            updateFreeSpace(pgNo, false);
+            page = null;
+            pgNo = freeSpaceMap().findPage(pgNo + 1, numPages);
+        }
+
+        if (page == null) {
+            // the new page is read from the zeroed extent and written out
+            // whenever the BufferPool flushes it
+            HeapPageId heappageid = new HeapPageId(getId(), allocatePage());
+            page = (TuplePage) Database.getBufferPool().getPage(tid, heappageid,
+                    Permissions.READ_WRITE);
+            page.insertTuple(t);
+        }
+        ArrayList<Page> pageArrayList = new ArrayList<Page>();
+        pageArrayList.add(page);
+        return pageArrayList;
+    }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException, IOException {
         PageId pageID = t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageID, Permissions.READ_WRITE);
+        TuplePage page = (TuplePage) Database.getBufferPool().getPage(tid, pageID, Permissions.READ_WRITE);
         page.deleteTuple(t);
         ArrayList<Page> pageArrayList = new ArrayList<Page>();
         pageArrayList.add(page);
@@ -160,10 +648,34 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p, which
+     * only decodes the tuples that do.
+     *
+     * @param p the predicate, or null for all the tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+        return iterator(tid, p, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy p, in
+     * which only the given fields need be set. Pages that store each field
+     * apart ({@link PaxPage}) then decode just those; others return whole
+     * tuples anyway.
+     *
+     * @param p       the predicate, or null for all the tuples
+     * @param columns the indices of the fields the caller reads, or null for
+     *                all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p, int[] columns) {
     	
         HeapFileIterator it;
 		try {
-			it = new HeapFileIterator(tid, this.getId(), this.numPages());
+			it = new HeapFileIterator(tid, this.getId(), this.numPages(), p, columns);
 		     return it;
 		} catch (TransactionAbortedException e) {
 			e.printStackTrace();
@@ -182,11 +694,17 @@ class HeapFileIterator implements DbFileIterator {
 	private TransactionId tid;
 	private int heapfileid;
 	private int numPages;
-	private HeapPage currpage;
-	private myIterator heappageiterator;
+	private TuplePage currpage;
+	private Iterator<Tuple> heappageiterator;
+	private Predicate predicate;
+	private int[] columns;
+	// prefetches the pages ahead of the scan, or null
+	private ReadAhead prefetcher;
 	
-	public HeapFileIterator(TransactionId tid, int heapfileid, int numPages) throws TransactionAbortedException, DbException, IOException{
+	public HeapFileIterator(TransactionId tid, int heapfileid, int numPages, Predicate predicate, int[] columns) throws TransactionAbortedException, DbException, IOException{
 			this.tid = tid;
+			this.predicate = predicate;
+			this.columns = columns;
 			this.heapfileid = heapfileid;
 			this.numPages = numPages;
 			pgNo = 0;
@@ -194,37 +712,50 @@ class HeapFileIterator implements DbFileIterator {
 	}
 	
 	public void open() throws TransactionAbortedException, DbException{
+		if (numPages == 0) {
+			currpage = null;
+			return;
+		}
+		if (readAhead && numPages > 1) {
+			prefetcher = new ReadAhead(heapfileid, numPages, !memoryMapped);
+			prefetcher.advance(pgNo);
+		}
 		Permissions perm = Permissions.READ_ONLY;
 		HeapPageId heappageid = new HeapPageId(heapfileid, pgNo);
-		HeapPage page;
+		TuplePage page;
 		
-		page = (HeapPage)Database.getBufferPool().getPage(tid, heappageid, perm);
+		page = (TuplePage)Database.getBufferPool().getPage(tid, heappageid, perm);
 		currpage = page;
-		heappageiterator = (myIterator) currpage.iterator();
+		heappageiterator = pageIterator();
 		
 		
 		
 	}
 	
+	private Iterator<Tuple> pageIterator() {
+		if (columns != null && currpage instanceof PaxPage) {
+			return ((PaxPage) currpage).iterator(predicate, columns);
+		}
+		return currpage.iterator(predicate);
+	}
+	
 	public boolean hasNext() throws DbException, TransactionAbortedException{
 		if (currpage == null) return false;
-		if (heappageiterator.hasNext()){
-			return true;
+		// skip pages with no tuples
+		while (!heappageiterator.hasNext()) {
+			if (pgNo == this.numPages-1) {
+				return false;
+			}
+			this.pgNo++;
+			if (prefetcher != null) {
+				prefetcher.advance(pgNo);
+			}
+			Permissions perm = Permissions.READ_ONLY;
+			HeapPageId heappageid = new HeapPageId(heapfileid, pgNo);
+			currpage = (TuplePage)Database.getBufferPool().getPage(tid, heappageid, perm);
+			heappageiterator = pageIterator();
 		}
-		if (pgNo == this.numPages-1) {
-			return false;
-		}
-		this.pgNo++;
-		Permissions perm = Permissions.READ_ONLY;
-		HeapPageId heappageid = new HeapPageId(heapfileid, pgNo);
-		HeapPage page;
-
-
-		page = (HeapPage)Database.getBufferPool().getPage(tid, heappageid, perm);
-		currpage = page;
-		heappageiterator = (myIterator) currpage.iterator();
-
-		return heappageiterator.hasNext();	
+		return true;
 		
 	}
 	
@@ -245,6 +776,10 @@ class HeapFileIterator implements DbFileIterator {
 	}
 	
 	public void close(){
+		if (prefetcher != null) {
+			prefetcher.close();
+			prefetcher = null;
+		}
 		currpage = null;
 	}
 	}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost of a BufferPool miss, i.e. of {@link HeapFile#readPage},
+ * comparing reads through a memory mapping of the file with positional reads
+ * on the file's channel. Pages are read in random order from a file that is
+ * already in the OS page cache, so the numbers are the per-page overhead of
+ * each path rather than disk time. Where the JVM can report it, the bytes
+ * allocated per page read are printed as well.
+ * <p/>
+ * Usage: java simpledb.HeapFileBenchmark [pages] [reads] [repetitions]
+ */
+public class HeapFileBenchmark {
+
+    public static void main(String[] argv) throws Exception {
+        int pages = argv.length > 0 ? Integer.parseInt(argv[0]) : 2000;
+        int reads = argv.length > 1 ? Integer.parseInt(argv[1]) : 100000;
+        int reps = argv.length > 2 ? Integer.parseInt(argv[2]) : 5;
+
+        int columns = 2;
+        TupleDesc td = Utility.getTupleDesc(columns);
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < pages * perPage; i++) {
+            ArrayList<Integer> tuple = new ArrayList<Integer>();
+            tuple.add(i);
+            tuple.add(i * 3);
+            tuples.add(tuple);
+        }
+        File f = File.createTempFile("heapbench", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), columns);
+        HeapFile hf = Utility.openHeapFile(columns, f);
+
+        int[] order = new int[reads];
+        Random rand = new Random(42);
+        for (int i = 0; i < reads; i++) {
+            order[i] = rand.nextInt(pages);
+        }
+
+        System.out.println("readPage on a " + pages + "-page file, " + reads
+                + " random reads");
+        for (int r = 0; r < reps; r++) {
+            hf.setMemoryMapped(false);
+            long readNanos = readAll(hf, order);
+            hf.setMemoryMapped(true);
+            long mappedNanos = readAll(hf, order);
+            System.out.println("run " + r + ": positional read " + (readNanos / reads)
+                    + " ns/page, mapped " + (mappedNanos / reads)
+                    + " ns/page, speedup " + String.format("%.2f",
+                    (double) readNanos / mappedNanos) + "x");
+        }
+        long allocated = allocatedBytes();
+        if (allocated >= 0) {
+            readAll(hf, order);
+            System.out.println("allocated " + (allocatedBytes() - allocated) / reads
+                    + " bytes/page (page size " + BufferPool.getPageSize() + ")");
+        }
+    }
+
+    /**
+     * @return the bytes allocated so far by this thread, or -1 if the JVM
+     * doesn't say
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static long readAll(HeapFile hf, int[] order) {
+        int tableId = hf.getId();
+        long start = System.nanoTime();
+        for (int pgNo : order) {
+            if (hf.readPage(new HeapPageId(tableId, pgNo)) == null) {
+                throw new IllegalStateException("could not read page " + pgNo);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -2,38 +2,65 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p/>
+ * A page keeps count of its empty slots and remembers the lowest slot that
+ * may be empty, so that inserts don't have to scan the header from the
+ * start. When its last empty slot is filled, or a slot of a full page is
+ * freed, it tells its HeapFile's {@link FreeSpaceMap}.
+ * <p/>
+ * Tuples are decoded from the bytes the page was read from only when they
+ * are first asked for, and then cached, so a page that is only inserted
+ * into, or whose tuples mostly fail a scan's predicate (see
+ * {@link #iterator(Predicate)}), doesn't build Tuple objects for them.
  *
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
+    // the decoded tuple in each slot; null for an empty slot or one that
+    // hasn't been decoded from data yet
     final Tuple tuples[];
     final int numSlots;
+    // the page size of the table
+    private final int pageSize;
+    // the bytes the page was read from; never modified
+    private final byte[] data;
+    // the offset of each field within a tuple
+    private final int[] fieldOffsets;
+    private int numEmpty;
+    // no slot below this one is empty
+    private int nextFreeSlot;
     
     private boolean isdirty;
     private TransactionId madedirty;
     
     private boolean flushedToLog;
     
+    // the before image, or null if it is the same as the page's current
+    // contents; see setBeforeImage()
     byte[] oldData;
-    private final Byte oldDataLock = new Byte((byte) 0);
+    // whether the page has changed since it was read from data
+    private boolean modified;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      * Specifically, the number of tuples is equal to: <p>
-     * floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     * floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the table's page size, from {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p/>
      * ceiling(no. tuple slots / 8)
@@ -41,30 +68,42 @@ public class HeapPage implements Page {
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        if (data.length < pageSize) {
+            if (data.length < getHeaderSize()) {
+                throw new EOFException("page data shorter than the page header");
+            }
+            data = Arrays.copyOf(data, pageSize);
+        }
+        this.data = data;
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        }
 
         // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        header = Arrays.copyOf(data, getHeaderSize());
+        numEmpty = 0;
+        nextFreeSlot = numSlots;
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (!isSlotUsed(i)) {
+                numEmpty++;
+                nextFreeSlot = i;
+            }
+        }
 
+        // the tuples themselves are decoded by tuple()
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // data is never modified, so it serves as the before image as is
+        oldData = data;
+        modified = false;
     }
 
     /**
@@ -73,7 +112,7 @@ public class HeapPage implements Page {
      * @return the number of tuples on this page
      */
     private int getNumTuples() {
-    	int totalbits = (BufferPool.getPageSize() * 8);
+    	int totalbits = (pageSize * 8);
     	long tupleSizeAndHeader = td.getSize()*8 + 1 ;
     	int numTuples = (int)Math.floor(totalbits / tupleSizeAndHeader);
         return numTuples;
@@ -98,7 +137,7 @@ public class HeapPage implements Page {
         try {
             byte[] oldDataRef = null;
             synchronized (oldDataLock) {
-                oldDataRef = oldData;
+                oldDataRef = oldData != null ? oldData : getPageData();
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -109,9 +148,27 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Makes the current contents of the page its before image. The contents
+     * aren't copied until the page is next modified (see beforeModify()), so
+     * this is cheap for pages that are only read.
+     */
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = modified ? null : data;
+        }
+    }
+
+    /**
+     * Saves the before image, if it is still the page's current contents,
+     * ahead of a change to the page.
+     */
+    private void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == null) {
+                oldData = getPageData();
+            }
+            modified = true;
         }
     }
 
@@ -123,37 +180,69 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, decoding it from the page data the first
+     * time it is asked for.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    Tuple tuple(int slotId) {
         if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                t.setField(j, field(slotId, j));
             }
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns one field of the tuple in a used slot, without decoding the
+     * rest of the tuple if it hasn't been decoded yet.
+     */
+    private Field field(int slotId, int j) {
+        if (tuples[slotId] != null) {
+            return tuples[slotId].getField(j);
+        }
+        Type type = td.getFieldType(j);
+        if (type == Type.INT_TYPE) {
+            return new IntField(intValue(slotId, j));
+        }
+        int off = header.length + slotId * td.getSize() + fieldOffsets[j];
+        try {
+            return type.parse(new DataInputStream(
+                    new ByteArrayInputStream(data, off, type.getLen())));
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * Reads the value of an INT field of a used slot from the page data.
+     */
+    private int intValue(int slotId, int j) {
+        int off = header.length + slotId * td.getSize() + fieldOffsets[j];
+        return (data[off] << 24) | ((data[off + 1] & 0xff) << 16)
+                | ((data[off + 2] & 0xff) << 8) | (data[off + 3] & 0xff);
+    }
+
+    /**
+     * @return true if the tuple in a used slot satisfies p. An INT field that
+     * hasn't been decoded is compared straight from the page data.
+     */
+    private boolean matches(int slotId, Predicate p) {
+        int j = p.getField();
+        if (tuples[slotId] == null && td.getFieldType(j) == Type.INT_TYPE) {
+            return IntField.compare(intValue(slotId, j), p.getOp(),
+                    ((IntField) p.getOperand()).getValue());
+        }
+        return field(slotId, j).compare(p.getOp(), p.getOperand());
     }
 
     /**
@@ -168,64 +257,56 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i = 0; i < header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        byte[] pageData = new byte[pageSize];
+        writePageData(ByteBuffer.wrap(pageData));
+        return pageData;
+    }
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Writes the same bytes as {@link #getPageData} into buf. Runs of empty
+     * slots are zeroed, and runs of slots that were never decoded are copied
+     * from the page's original data, each with one bulk operation; only
+     * decoded tuples are written field by field.
+     */
+    public void writePageData(ByteBuffer buf) {
+        buf.put(header);
 
+        int size = td.getSize();
+        int i = 0;
+        while (i < numSlots) {
+            if (tuples[i] != null && isSlotUsed(i)) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    tuples[i].getField(j).serialize(buf);
                 }
+                i++;
                 continue;
             }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            boolean used = isSlotUsed(i);
+            int runStart = i;
+            while (i < numSlots && isSlotUsed(i) == used
+                    && (!used || tuples[i] == null)) {
+                i++;
+            }
+            if (used) {
+                // unchanged since the page was read
+                buf.put(data, header.length + runStart * size, (i - runStart) * size);
+            } else {
+                putZeroes(buf, (i - runStart) * size);
             }
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        putZeroes(buf, pageSize - (header.length + size * numSlots));
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    private static final byte[] ZEROES = new byte[4096];
 
-        return baos.toByteArray();
+    private static void putZeroes(ByteBuffer buf, int n) {
+        while (n > 0) {
+            int len = Math.min(n, ZEROES.length);
+            buf.put(ZEROES, 0, len);
+            n -= len;
+        }
     }
 
     /**
@@ -259,10 +340,15 @@ public class HeapPage implements Page {
         	throw new DbException("This slot is not being used.");
         }
         int i = t_recordId.tupleno();
+        beforeModify();
         this.markSlotUsed(i, false);
         tuples[i] = null;
         RecordId newrecordid = new RecordId(null, 0);
         t.setRecordId(newrecordid);
+        nextFreeSlot = Math.min(nextFreeSlot, i);
+        if (numEmpty == 1) {
+            freeSpaceChanged();
+        }
     }
 
     /**
@@ -280,18 +366,34 @@ public class HeapPage implements Page {
         if (this.td.equals(t.getTupleDesc()) == false) {
         	throw new DbException("The tuple descs don't match.");
         } 
-        int i = 0;
-        for (int j = 0; j < this.getNumTuples(); j++){
-        	if (!(isSlotUsed(j))) {
-        		i = j;
-        		break;
-        	}
+        // skip whole header bytes of used slots
+        int i = nextFreeSlot;
+        while (isSlotUsed(i)) {
+            if (i % 8 == 0 && header[i / 8] == (byte) 0xFF) {
+                i += 8;
+            } else {
+                i++;
+            }
         }
+        beforeModify();
         RecordId new_recordId = new RecordId(this.getId(), i);
         t.setRecordId(new_recordId);
         markSlotUsed(i, true);
         tuples[i] = t;
-        
+        nextFreeSlot = i + 1;
+        if (numEmpty == 0) {
+            freeSpaceChanged();
+        }
+    }
+
+    /**
+     * Tells the HeapFile of this page whether the page has room left.
+     */
+    private void freeSpaceChanged() {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof HeapFile) {
+            ((HeapFile) f).updateFreeSpace(pid.pageNumber(), numEmpty > 0);
+        }
     }
 
     /**
@@ -325,37 +427,17 @@ public class HeapPage implements Page {
     }
     
     /**
-     * Counts the number of 0s in the bit representation of the int value. 
+     * Returns the number of empty slots on this page.
      */
-    private int bitCount(int value){
-    	int count = 0;
-    	int tocompare = 1;
-    	while (tocompare < Math.pow(2, 8)){
-    		if ((value & tocompare) == 0)
-    			count++;
-    		tocompare <<= 1;
-    	}
-    	return count;
+    public int getNumEmptySlots() {
+        return numEmpty;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * @return whether the page has an empty slot
      */
-    public int getNumEmptySlots() {
-        int count = 0;
-        for (int i = 0; i < header.length - 1; i++){
-        	Byte thisByte = header[i];	
-        	count += bitCount(thisByte);
-        } 
-        // handling the last byte separately 
-        // because the higher order bits may not be used.
-        Byte lastbyte = header[header.length - 1];
-        int lastbyteint = lastbyte.intValue();
-        int slotsusedinlastbyte = this.getNumTuples() % 8;
-        lastbyteint <<= slotsusedinlastbyte;
-        lastbyteint >>= slotsusedinlastbyte;
-        count += bitCount(lastbyteint);
-        return count;
+    public boolean hasRoom() {
+        return numEmpty > 0;
     }
 
     /**
@@ -380,6 +462,9 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+        if (isSlotUsed(i) != value) {
+            numEmpty += value ? -1 : 1;
+        }
     	int slotByteNo = (i / 8);
         Byte headerByte = header[slotByteNo];
         int bitInByte = i % 8;
@@ -403,19 +488,27 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        Iterator<Tuple> it = new myIterator(this, tuples);
+        Iterator<Tuple> it = new myIterator(this, null);
         return it;
     }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p. Tuples
+     * that fail it aren't decoded, apart from a STRING field that p tests.
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+        return new myIterator(this, p);
+    }
     
     class myIterator implements Iterator<Tuple> {
 
         private int currIdx;
         private Tuple next = null;
         private HeapPage heappage = null;
-        private Tuple tuples[] = null;
+        private Predicate p;
         
-        public myIterator(HeapPage heappage, Tuple[] tuples) {
-            this.tuples = tuples;
+        public myIterator(HeapPage heappage, Predicate p) {
+            this.p = p;
             this.heappage = heappage;
             currIdx = 0;
             next = null;
@@ -436,12 +529,13 @@ public class HeapPage implements Page {
         private void fetchNext() {
             // keep going as long as the current item does not match
             // the criteria
-            while (currIdx < tuples.length && heappage.isSlotUsed(currIdx)==false) {
+            while (currIdx < numSlots && (heappage.isSlotUsed(currIdx)==false
+                    || (p != null && !heappage.matches(currIdx, p)))) {
                 currIdx++;
             }
             // did we find a match or reach the end of the data?
-            if (currIdx < tuples.length) {
-                next = tuples[currIdx];
+            if (currIdx < numSlots) {
+                next = heappage.tuple(currIdx);
                 currIdx++;           
             }
         }
@@ -40,6 +40,10 @@ public class IntField implements Field {
         dos.writeInt(value);
     }
 
+    public void serialize(java.nio.ByteBuffer buf) {
+        buf.putInt(value);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -48,29 +52,34 @@ public class IntField implements Field {
      * @see Field#compare
      */
     public boolean compare(Predicate.Op op, Field val) {
+        return compare(value, op, ((IntField) val).value);
+    }
 
-        IntField iVal = (IntField) val;
-
+    /**
+     * Compares two int values the way {@link #compare(Predicate.Op, Field)}
+     * compares IntFields holding them, without allocating the fields.
+     */
+    static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
 
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
 
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
 
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
 
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
 
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
         }
 
         return false;
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IntHashMap is an open-addressing hash table keyed by primitive ints. It is
+ * used by operators that hash on INT_TYPE fields so that the keys don't have
+ * to be boxed into Integer or IntField objects on every lookup.
+ * <p/>
+ * Null values are not allowed; a null value in a slot marks it as empty.
+ */
+public class IntHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Creates an empty map.
+     */
+    public IntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map that can hold expectedSize keys without resizing.
+     *
+     * @param expectedSize the number of keys expected to be stored
+     */
+    public IntHashMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /**
+     * Spreads the bits of the key so that sequential ints don't cluster.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot holding key, or the empty slot where it would go.
+     */
+    private int findSlot(int key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the value mapped to key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        return (V) values[findSlot(key)];
+    }
+
+    /**
+     * Maps key to value, replacing any previous mapping.
+     *
+     * @throws IllegalArgumentException if value is null
+     */
+    public void put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("IntHashMap does not store null values");
+        }
+        int slot = findSlot(key);
+        if (values[slot] == null) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value;
+        if (size * 2 > values.length) {
+            resize();
+        }
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all the mappings, keeping the current capacity.
+     */
+    public void clear() {
+        java.util.Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return a cursor over the entries of this map, in no particular order.
+     * The map must not be modified while the cursor is in use.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the occupied slots of the map without allocating an entry object
+     * per key.
+     */
+    public class Cursor {
+        private int slot = -1;
+
+        /**
+         * Advances to the next entry.
+         *
+         * @return false if there are no more entries
+         */
+        public boolean advance() {
+            do {
+                slot++;
+            } while (slot < values.length && values[slot] == null);
+            return slot < values.length;
+        }
+
+        public int key() {
+            checkPosition();
+            return keys[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        public V value() {
+            checkPosition();
+            return (V) values[slot];
+        }
+
+        private void checkPosition() {
+            if (slot < 0 || slot >= values.length) {
+                throw new NoSuchElementException();
+            }
+        }
+    }
+}
@@ -9,27 +9,63 @@ public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Default number of pages' worth of outer tuples in a block.
+     */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
     private DbIterator child1, child2;
     private JoinPredicate p;
-    private Tuple child1tuple, child2tuple;
+    private TupleDesc td;
+    private final int blockPages;
+
+    // the current block of outer tuples, and the next one to try against
+    // child2tuple
+    private transient Tuple[] block;
+    private transient int blockCount, blockPos;
+    private transient Tuple child2tuple;
+    private transient boolean innerUsed;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
-     * on
+     * on. Uses blocks of DEFAULT_BLOCK_PAGES pages.
      *
      * @param p      The predicate to use to join the children
      * @param child1 Iterator for the left(outer) relation to join
      * @param child2 Iterator for the right(inner) relation to join
-     * @throws TransactionAbortedException 
-     * @throws DbException 
-     * @throws NoSuchElementException 
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor for a block nested-loop join: the outer relation is read
+     * blockPages pages' worth of tuples at a time, and the inner relation is
+     * scanned once per block rather than once per outer tuple.
+     *
+     * @param p          The predicate to use to join the children
+     * @param child1     Iterator for the left(outer) relation to join
+     * @param child2     Iterator for the right(inner) relation to join
+     * @param blockPages The number of pages of outer tuples in a block
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2,
+                int blockPages) {
+        if (blockPages < 1) {
+            throw new IllegalArgumentException("blockPages must be positive");
+        }
         this.child1 = child1;
         this.child2 = child2;
         this.p = p;
-        child1tuple = null;
-        child2tuple = null;
-       
+        this.blockPages = blockPages;
+        this.td = mergeTupleDesc();
+    }
+
+    /**
+     * @return the number of outer tuples that fit in a block of blockPages
+     * pages, for tuples of the given TupleDesc
+     */
+    public static int blockTuples(int blockPages, TupleDesc td) {
+        return Math.max(1, blockPages * BufferPool.getPageSize() / td.getSize());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -41,7 +77,7 @@ public class Join extends Operator {
      * alias or table name.
      */
     public String getJoinField1Name() {
-        return child1.getTupleDesc().getFieldName(p.getField1());
+        return joinFieldName(child1, p.getField1());
     }
 
     /**
@@ -49,7 +85,7 @@ public class Join extends Operator {
      * alias or table name.
      */
     public String getJoinField2Name() {
-    	return child2.getTupleDesc().getFieldName(p.getField2());	
+    	return joinFieldName(child2, p.getField2());
     }
 
     /**
@@ -57,6 +93,10 @@ public class Join extends Operator {
      * implementation logic.
      */
     public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private TupleDesc mergeTupleDesc() {
     	TupleDesc td1 = child1.getTupleDesc();
     	TupleDesc td2 = child2.getTupleDesc();
     	int new_length = td1.numFields() + td2.numFields();
@@ -78,20 +118,29 @@ public class Join extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        block = new Tuple[blockTuples(blockPages, child1.getTupleDesc())];
+        resetBlock();
         super.open();
     }
 
     public void close() {
         child1.close();
         child2.close();
+        block = null;
         super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
     	child1.rewind();
-    	this.child1tuple = null;
         child2.rewind();
-        this.child2tuple = null;
+        resetBlock();
+    }
+
+    private void resetBlock() {
+        blockCount = 0;
+        blockPos = 0;
+        child2tuple = null;
+        innerUsed = false;
     }
 
     /**
@@ -113,80 +162,74 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-       if (child1tuple == null) {
-    	   if (child1.hasNext()) {
-    		   child1tuple = child1.next();
-    	   }
-    	   else {
-    		   return null;
-    	   }
-       }
-       if (child2tuple == null) {
-    	   if (child2.hasNext()) {
-    		   child2tuple = child2.next();
-    	   }
-    	   else {
-    		   if (child1.hasNext()) {
-    			   child2.rewind();
-    			   child2tuple = child2.next();
-    			   child1tuple = child1.next();
-    		   }
-    		   else {
-    			   child1tuple = null;
-    			   return null;
-    		   }
-    		   
-    	   }
-       }
-       if (p.filter(child1tuple, child2tuple)) {
-    	   Tuple joinedTuple = this.joinTuples(child1tuple, child2tuple);
-    	   child2tuple = null;
-    	   return joinedTuple;
-       }
-       else {
-    	   while (child1tuple != null){
-    		   while (child2tuple != null) {
-    			   if (p.filter(child1tuple, child2tuple)) {
-    				   Tuple joinedTuple = this.joinTuples(child1tuple, child2tuple);
-    				   child2tuple = null;
-    				   return joinedTuple;
-    			   }
-    			   if (child2.hasNext()) {
-    				   child2tuple = child2.next();
-    			   }
-    			   else {
-    				   child2tuple = null;
-    			   }
-    		}
-    		   child2.rewind();
-    		   child2tuple = child2.next();
-    		   if (child1.hasNext()) {
-    			   child1tuple = child1.next();
-    		   }
-    		   else {
-    			   child1tuple = null;
-    		   }
-    	   }
-    	   
-    	   return null;
-       }
-    }
-    
-    private Tuple joinTuples(Tuple tuple1, Tuple tuple2){
-    	TupleDesc td = this.getTupleDesc();
-    	Tuple joinedtuple = new Tuple(td);
-    	int i = 0;
-    	while (i < tuple1.getTupleDesc().numFields()) {
-    		joinedtuple.setField(i, tuple1.getField(i));
-    		i++;
-    	}
-    	int j = 0;
-    	while (j < tuple2.getTupleDesc().numFields()) {
-    		joinedtuple.setField(i, tuple2.getField(j));
-    		j++;
-    		i++;
-    	}
-    	return joinedtuple;
+        while (true) {
+            if (blockCount == 0 && !fillBlock()) {
+                return null;
+            }
+            while (child2tuple != null && blockPos < blockCount) {
+                Tuple child1tuple = block[blockPos++];
+                if (p.filter(child1tuple, child2tuple)) {
+                    return joinTuples(td, child1tuple, child2tuple);
+                }
+            }
+            if (child2.hasNext()) {
+                child2tuple = child2.next();
+                blockPos = 0;
+            } else {
+                // this block has seen the whole inner relation
+                blockCount = 0;
+                child2tuple = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next block of outer tuples, rewinding the inner relation if
+     * a previous block has already been through it.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean fillBlock() throws TransactionAbortedException, DbException {
+        while (blockCount < block.length && child1.hasNext()) {
+            block[blockCount++] = child1.next();
+        }
+        for (int i = blockCount; i < block.length && block[i] != null; i++) {
+            block[i] = null;
+        }
+        if (blockCount == 0) {
+            return false;
+        }
+        if (innerUsed) {
+            child2.rewind();
+        }
+        innerUsed = true;
+        blockPos = 0;
+        return true;
+    }
+
+    /**
+     * @return a tuple with the schema td, holding the fields of tuple1
+     * followed by those of tuple2
+     */
+    static Tuple joinTuples(TupleDesc td, Tuple tuple1, Tuple tuple2) {
+        Field[] fields = new Field[td.numFields()];
+        int n1 = tuple1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            fields[i] = tuple1.getField(i);
+        }
+        int n2 = tuple2.getTupleDesc().numFields();
+        for (int i = 0; i < n2; i++) {
+            fields[n1 + i] = tuple2.getField(i);
+        }
+        return new Tuple(td, fields);
+    }
+
+    /**
+     * @return the name of the given field of child, quantified by alias or
+     * table name
+     */
+    static String joinFieldName(DbIterator child, int field) {
+        return child.getTupleDesc().getFieldName(field);
     }
 
     @Override
@@ -199,6 +242,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         child1 = children[0];
         child2 = children[1];
+        td = mergeTupleDesc();
     }
 
 }
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The build side of a hash join: tuples of one relation hashed on their join
+ * field. INT_TYPE join fields are kept in an {@link IntHashMap} keyed by the
+ * primitive value; every other type falls back to a HashMap keyed by Field.
+ */
+class JoinHashTable {
+
+    private final int field;
+    private final boolean intKeys;
+    private final IntHashMap<ArrayList<Tuple>> intTable;
+    private final HashMap<Field, ArrayList<Tuple>> fieldTable;
+    private int numTuples;
+
+    /**
+     * @param field     the index of the join field in the build tuples
+     * @param fieldType the type of the join field
+     */
+    public JoinHashTable(int field, Type fieldType) {
+        this.field = field;
+        this.intKeys = fieldType == Type.INT_TYPE;
+        if (intKeys) {
+            intTable = new IntHashMap<ArrayList<Tuple>>();
+            fieldTable = null;
+        } else {
+            intTable = null;
+            fieldTable = new HashMap<Field, ArrayList<Tuple>>();
+        }
+        numTuples = 0;
+    }
+
+    /**
+     * Adds a build tuple to the table.
+     */
+    public void add(Tuple t) {
+        ArrayList<Tuple> bucket;
+        if (intKeys) {
+            int key = ((IntField) t.getField(field)).getValue();
+            bucket = intTable.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(2);
+                intTable.put(key, bucket);
+            }
+        } else {
+            Field key = t.getField(field);
+            bucket = fieldTable.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(2);
+                fieldTable.put(key, bucket);
+            }
+        }
+        bucket.add(t);
+        numTuples++;
+    }
+
+    /**
+     * Adds every remaining tuple of the iterator to the table.
+     */
+    public void addAll(DbIterator it) throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            add(it.next());
+        }
+    }
+
+    /**
+     * Returns the build tuples whose join field equals the given field.
+     *
+     * @param probeField the join field of the probing tuple
+     * @return the matching tuples, or null if there are none
+     */
+    public ArrayList<Tuple> probe(Field probeField) {
+        if (intKeys) {
+            return intTable.get(((IntField) probeField).getValue());
+        }
+        return fieldTable.get(probeField);
+    }
+
+    /**
+     * @return the number of tuples added to the table
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+}
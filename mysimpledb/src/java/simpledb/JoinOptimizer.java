@@ -64,17 +64,7 @@ public class JoinOptimizer {
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
         if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (DbIterator) ct
-                        .newInstance(new Object[]{p, plan1, plan2});
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
+            j = new HashEquiJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -83,6 +73,153 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Like {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)},
+     * but uses the table statistics to choose the join algorithm:
+     * <ul>
+     * <li>range predicates use a {@link SortMergeJoin} when its estimated cost
+     * is lower than a block nested-loop {@link Join}'s and the right side,
+     * which it holds in memory, fits in
+     * {@link GraceHashJoin#DEFAULT_MEMORY_PAGES} pages;</li>
+     * <li>an equality join whose output goes straight to an ORDER BY on one of
+     * its join fields uses a SortMergeJoin when sorting the inputs is cheaper
+     * than sorting the output;</li>
+     * <li>other equality joins use an in-memory {@link HashEquiJoin} if the
+     * estimated size of the right (build) side fits in
+     * {@link GraceHashJoin#DEFAULT_MEMORY_PAGES} pages, and a
+     * {@link GraceHashJoin} that partitions its inputs to disk otherwise.</li>
+     * </ul>
+     *
+     * @param lj                  The join being considered
+     * @param plan1               The left join node's child
+     * @param plan2               The right join node's child
+     * @param stats               The table stats, referenced by table names
+     * @param filterSelectivities the selectivities of the filters over each
+     *                            of the tables, referenced by alias
+     * @param lastJoin            true if this is the last join of the query,
+     *                            i.e. its output feeds the ORDER BY (if any)
+     */
+    public DbIterator instantiateJoin(LogicalJoinNode lj, DbIterator plan1,
+                                      DbIterator plan2, Map<String, TableStats> stats,
+                                      Map<String, Double> filterSelectivities,
+                                      boolean lastJoin) throws ParsingException {
+        DbIterator j = instantiateJoin(lj, plan1, plan2);
+        if (lj instanceof LogicalSubplanJoinNode) {
+            return j;
+        }
+        if (j instanceof Join && SortMergeJoin.supports(lj.p)) {
+            JoinPredicate jp = ((Join) j).getJoinPredicate();
+            int card1 = estimatePlanCardinality(plan1, stats, filterSelectivities);
+            int card2 = estimatePlanCardinality(plan2, stats, filterSelectivities);
+            if (card1 > 0 && card2 > 0 && prefersSortMergeJoin(
+                    card1, estimatePlanCost(plan1, stats),
+                    SortMergeJoin.isSortedOn(plan1, jp.getField1()), plan1.getTupleDesc(),
+                    card2, estimatePlanCost(plan2, stats),
+                    SortMergeJoin.isSortedOn(plan2, jp.getField2()), plan2.getTupleDesc())) {
+                return new SortMergeJoin(jp, plan1, plan2);
+            }
+            return j;
+        }
+        if (j instanceof HashEquiJoin) {
+            JoinPredicate jp = ((HashEquiJoin) j).getJoinPredicate();
+            int card1 = estimatePlanCardinality(plan1, stats, filterSelectivities);
+            int card2 = estimatePlanCardinality(plan2, stats, filterSelectivities);
+            if (lastJoin && producesOrderByField(lj)) {
+                double hashCost = card1 + card2 + estimateSortCost(
+                        estimatePlanCardinality(j, stats, filterSelectivities));
+                double mergeCost = estimateSortMergeJoinCost(card1, card2, 0, 0,
+                        SortMergeJoin.isSortedOn(plan1, jp.getField1()),
+                        SortMergeJoin.isSortedOn(plan2, jp.getField2()));
+                if (mergeCost < hashCost) {
+                    return new SortMergeJoin(jp, plan1, plan2);
+                }
+            }
+            if (!GraceHashJoin.fitsInMemory(card2, plan2.getTupleDesc(),
+                    GraceHashJoin.DEFAULT_MEMORY_PAGES)) {
+                j = new GraceHashJoin(jp, plan1, plan2);
+            }
+        }
+        return j;
+    }
+
+    /**
+     * @return true if the output of a sort-merge join for j would be sorted
+     * ascending on the query's ORDER BY field
+     */
+    private boolean producesOrderByField(LogicalJoinNode j) {
+        String field = p.getAscendingOrderByField();
+        if (field == null || !SortMergeJoin.supports(j.p)) {
+            return false;
+        }
+        return field.equals(j.f1QuantifiedName)
+                || (j.p == Predicate.Op.EQUALS && field.equals(j.f2QuantifiedName));
+    }
+
+    /**
+     * Estimates the number of tuples produced by a subplan of this query.
+     */
+    private int estimatePlanCardinality(DbIterator plan,
+                                        Map<String, TableStats> stats,
+                                        Map<String, Double> filterSelectivities) {
+        if (plan instanceof Operator) {
+            Operator o = (Operator) plan;
+            if (!hasStatistics(o, stats)) {
+                // the plan joins in a subquery, whose tables this plan has
+                // no aliases or statistics for
+                return 0;
+            }
+            OperatorCardinality.updateOperatorCardinality(o,
+                    p.getTableAliasToIdMapping(), stats);
+            return o.getEstimatedCardinality();
+        } else if (plan instanceof SeqScan && hasStatistics(plan, stats)) {
+            SeqScan s = (SeqScan) plan;
+            Double selectivity = filterSelectivities.get(s.getAlias());
+            return stats.get(s.getTableName()).estimateTableCardinality(
+                    selectivity == null ? 1.0 : selectivity);
+        }
+        return 0;
+    }
+
+    /**
+     * Estimates the cost of one full run of a subplan of this query: the cost
+     * of scanning each of the tables it reads.
+     */
+    private double estimatePlanCost(DbIterator plan, Map<String, TableStats> stats) {
+        if (!hasStatistics(plan, stats)) {
+            return 0;
+        }
+        if (plan instanceof SeqScan) {
+            return stats.get(((SeqScan) plan).getTableName()).estimateScanCost();
+        }
+        double cost = 0;
+        for (DbIterator child : ((Operator) plan).getChildren()) {
+            if (child != null) {
+                cost += estimatePlanCost(child, stats);
+            }
+        }
+        return cost;
+    }
+
+    /**
+     * @return true if every table plan scans is one of this query's, and has
+     * statistics, so that the plan's cardinality can be estimated
+     */
+    private boolean hasStatistics(DbIterator plan, Map<String, TableStats> stats) {
+        if (plan instanceof SeqScan) {
+            SeqScan s = (SeqScan) plan;
+            return p.getTableAliasToIdMapping().containsKey(s.getAlias())
+                    && stats.containsKey(s.getTableName());
+        } else if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren()) {
+                if (child != null && !hasStatistics(child, stats)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Estimate the cost of a join.
      * <p/>
@@ -109,9 +246,128 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
-        } else {
-            return cost1 + (card1*cost2);
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // hash join: one scan of each side, one insert per inner tuple
+            // and one probe per outer tuple
+            double cost = cost1 + cost2 + card1 + card2;
+            if (!buildSideFitsInMemory(j, card2)) {
+                // GraceHashJoin writes both inputs out to its partitions
+                // and reads them back
+                cost += 2 * (cost1 + cost2);
+            }
+            return cost;
+        }
+        if (SortMergeJoin.supports(j.p) && prefersSortMergeJoin(
+                card1, cost1, false, tableTupleDesc(j.t1Alias),
+                card2, cost2, false, tableTupleDesc(j.t2Alias))) {
+            return estimateSortMergeJoinCost(card1, card2, cost1, cost2, false, false);
+        }
+        return estimateNestedLoopCost(card1, card2, cost1, cost2,
+                outerBlockTuples(tableTupleDesc(j.t1Alias)));
+    }
+
+    /**
+     * Decides whether a range join runs as a {@link SortMergeJoin} or as a
+     * block nested-loop {@link Join}; both {@link #estimateJoinCost} and
+     * {@link #instantiateJoin} make their choice here. The optimizer's own
+     * inputs are base tables and join outputs whose operators aren't chosen
+     * yet, so it passes them as unsorted.
+     *
+     * @param sorted1 true if the left side is already sorted on its join field
+     * @param td1     the left side's tuple desc, or null if unknown
+     * @param sorted2 true if the right side is already sorted on its join field
+     * @param td2     the right side's tuple desc, or null if unknown
+     * @return true if the sort-merge join is cheaper and the right side, which
+     * it holds in memory, fits in {@link GraceHashJoin#DEFAULT_MEMORY_PAGES}
+     */
+    private static boolean prefersSortMergeJoin(int card1, double cost1, boolean sorted1,
+                                                TupleDesc td1, int card2, double cost2,
+                                                boolean sorted2, TupleDesc td2) {
+        if (td2 != null && !GraceHashJoin.fitsInMemory(card2, td2,
+                GraceHashJoin.DEFAULT_MEMORY_PAGES)) {
+            return false;
         }
+        return estimateSortMergeJoinCost(card1, card2, cost1, cost2, sorted1, sorted2)
+                < estimateNestedLoopCost(card1, card2, cost1, cost2, outerBlockTuples(td1));
+    }
+
+    /**
+     * Estimate the cost of a block nested-loop {@link Join}: one scan of the
+     * inner table per block of outer tuples, and one predicate application
+     * per pair of tuples.
+     *
+     * @param blockTuples the number of outer tuples in a block
+     * @see #estimateJoinCost
+     */
+    static double estimateNestedLoopCost(int card1, int card2, double cost1,
+                                         double cost2, int blockTuples) {
+        double blocks = Math.ceil((double) card1 / blockTuples);
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a {@link SortMergeJoin}: one scan of each side,
+     * sorting each side that isn't sorted already, and one comparison per
+     * tuple during the merge.
+     *
+     * @param sorted1 true if the left side is already sorted on its join field
+     * @param sorted2 true if the right side is already sorted on its join field
+     * @see #estimateJoinCost
+     */
+    public static double estimateSortMergeJoinCost(int card1, int card2, double cost1,
+                                                   double cost2, boolean sorted1,
+                                                   boolean sorted2) {
+        double cost = cost1 + cost2 + card1 + card2;
+        if (!sorted1) {
+            cost += estimateSortCost(card1);
+        }
+        if (!sorted2) {
+            cost += estimateSortCost(card2);
+        }
+        return cost;
+    }
+
+    /**
+     * @return the number of comparisons needed to sort card tuples
+     */
+    public static double estimateSortCost(int card) {
+        if (card <= 1) {
+            return 0;
+        }
+        return card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return the number of outer tuples with the given tuple desc that a
+     * {@link Join} holds in a block, or 1 if it's unknown
+     */
+    private static int outerBlockTuples(TupleDesc td1) {
+        if (td1 == null) {
+            return 1;
+        }
+        return Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, td1);
+    }
+
+    /**
+     * @return the tuple desc of the table with the given alias, or null if
+     * the alias isn't one of this query's
+     */
+    private TupleDesc tableTupleDesc(String alias) {
+        Integer tableId = p.getTableId(alias);
+        if (tableId == null) {
+            return null;
+        }
+        return Database.getCatalog().getTupleDesc(tableId);
+    }
+
+    /**
+     * @return false if card2 tuples of the right-hand table of j are too many
+     * to hold in an in-memory hash table
+     */
+    private boolean buildSideFitsInMemory(LogicalJoinNode j, int card2) {
+        TupleDesc td2 = tableTupleDesc(j.t2Alias);
+        return td2 == null || GraceHashJoin.fitsInMemory(card2, td2,
+                GraceHashJoin.DEFAULT_MEMORY_PAGES);
     }
 
     /**
@@ -230,6 +486,10 @@ public class JoinOptimizer {
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
+        if (joins.isEmpty()) {
+            // a single table; there is nothing to order
+            return joins;
+        }
     	PlanCache pc = new PlanCache();
     	CostCard bestplan = new CostCard();
     	for (int i = 1; i < joins.size() + 1; i++) { // first find best plan for single join, then for 2 joins, etc
@@ -376,6 +636,23 @@ public class JoinOptimizer {
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+
+        if (p.getAscendingOrderByField() != null && joinSet.size() == joins.size()) {
+            // the output of the last join has to be sorted for the ORDER BY,
+            // unless a sort-merge join on the ORDER BY field produces it in order
+            double sortCost = estimateSortCost(estimateJoinCardinality(j,
+                    t1card, t2card, leftPkey, rightPkey, stats));
+            cost1 += sortCost;
+            cost2 += sortCost;
+            if (producesOrderByField(j)) {
+                cost1 = Math.min(cost1, estimateSortMergeJoinCost(t1card,
+                        t2card, t1cost, t2cost, false, false));
+            }
+            if (producesOrderByField(j2)) {
+                cost2 = Math.min(cost2, estimateSortMergeJoinCost(t2card,
+                        t1card, t2cost, t1cost, false, false));
+            }
+        }
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that implements LIMIT / OFFSET: it skips the first
+ * offset tuples of its child and returns at most limit of the ones after
+ * that. Once the limit is reached it stops pulling tuples from the child.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int limit;
+    private final int offset;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit  the maximum number of tuples to return
+     * @param offset the number of tuples of the child to skip first
+     * @param child  the child operator
+     */
+    public Limit(int limit, int offset, DbIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("LIMIT and OFFSET must not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = -offset;
+        super.open();
+    }
+
+    public void close() {
+        child.close();
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = -offset;
+    }
+
+    /**
+     * Returns the next tuple of the child after the offset, or null once
+     * limit tuples have been returned or the child is exhausted.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (returned < limit && child.hasNext()) {
+            Tuple t = child.next();
+            if (returned++ >= 0) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+
+}
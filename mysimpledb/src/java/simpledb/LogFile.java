@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -88,6 +89,8 @@ public class LogFile {
     final static int LONG_SIZE = 8;
 
     private Set<Long> activeTids = new HashSet<Long>();
+    // holds the page being written by writePageData
+    private ByteBuffer pageBuffer;
 
     /**
      * Constructor.
@@ -304,7 +307,7 @@ public class LogFile {
     }
 
 
-    static void writePageData(RandomAccessFile raf, Page p) throws IOException {
+    void writePageData(RandomAccessFile raf, Page p) throws IOException {
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -326,9 +329,14 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        int pageSize = Database.getCatalog().getPageSize(pid.getTableId());
+        if (pageBuffer == null || pageBuffer.capacity() < pageSize) {
+            pageBuffer = ByteBuffer.allocate(pageSize);
+        }
+        pageBuffer.clear();
+        p.writePageData(pageBuffer);
+        raf.writeInt(pageBuffer.position());
+        raf.write(pageBuffer.array(), 0, pageBuffer.position());
     }
 
     static Page readPageData(RandomAccessFile raf) throws IOException {
@@ -350,7 +358,14 @@ public class LogFile {
             }
             pid = (PageId) idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // the constructor that takes the page's bytes
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                }
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -360,7 +375,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
@@ -3,6 +3,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -13,9 +14,8 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p/>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * All the aggregates of a LogicalPlan share the same group by fields.
  * <p/>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -30,12 +30,14 @@ public class LogicalPlan {
     private HashMap<String, Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<LogicalSelectListNode> aggs;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private boolean hasLimit = false;
+    private boolean hasDistinct = false;
+    private int limit, offset;
     private String query;
 //    private Query owner;
 
@@ -44,6 +46,8 @@ public class LogicalPlan {
      */
     public LogicalPlan() {
         joins = new Vector<LogicalJoinNode>();
+        groupByFields = new Vector<String>();
+        aggs = new Vector<LogicalSelectListNode>();
         filters = new Vector<LogicalFilterNode>();
         tables = new Vector<LogicalScanNode>();
         subplanMap = new HashMap<String, DbIterator>();
@@ -202,24 +206,49 @@ public class LogicalPlan {
 
     /**
      * Add an aggregate over the field with the specified grouping to
-     * the query.  SimpleDb only supports a single aggregate
-     * expression and GROUP BY field.
+     * the query.  A query may have any number of aggregates; they are all
+     * computed over the same GROUP BY fields, in one pass.
      *
      * @param op     the aggregation operator
      * @param afield the field to aggregate over
-     * @param gfield the field to group by
+     * @param gfield a field to group by, or null to only use the fields added
+     *               with {@link #addGroupByField}
      * @throws ParsingException
      */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield = disambiguateName(afield);
         if (gfield != null)
-            gfield = disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupByField(gfield);
+        aggs.addElement(new LogicalSelectListNode(op, afield));
         hasAgg = true;
     }
 
+    /**
+     * Add a GROUP BY field to the query. Fields are grouped on in the order
+     * they are added; adding a field twice has no effect.
+     *
+     * @param gfield the field to group by
+     * @throws ParsingException
+     */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield = disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /**
+     * @return the position of the aggregate of the select list node among the
+     * aggregates of the query, or -1 if it isn't one of them
+     */
+    private int aggregateIndex(LogicalSelectListNode si) {
+        for (int i = 0; i < aggs.size(); i++) {
+            LogicalSelectListNode agg = aggs.elementAt(i);
+            if (agg.aggOp.equalsIgnoreCase(si.aggOp) && agg.fname.equals(si.fname))
+                return i;
+        }
+        return -1;
+    }
+
     /**
      * Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
      * a single ORDER BY field.
@@ -235,6 +264,42 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /**
+     * Add a LIMIT clause, with an optional OFFSET, to the query.
+     *
+     * @param limit  the maximum number of result tuples
+     * @param offset the number of result tuples to skip first
+     * @throws ParsingException if limit or offset is negative
+     */
+    public void addLimit(int limit, int offset) throws ParsingException {
+        if (limit < 0 || offset < 0) {
+            throw new ParsingException("LIMIT and OFFSET must not be negative");
+        }
+        this.limit = limit;
+        this.offset = offset;
+        hasLimit = true;
+    }
+
+    /**
+     * Make the query return each distinct result tuple only once (SELECT
+     * DISTINCT).
+     */
+    public void addDistinct() {
+        hasDistinct = true;
+    }
+
+    /**
+     * @return the qualified name of the ORDER BY field if the result of the
+     * joins is sorted on it in ascending order, with no aggregate in between;
+     * null otherwise
+     */
+    public String getAscendingOrderByField() {
+        if (hasOrderBy && oByAsc && !hasAgg) {
+            return oByField;
+        }
+        return null;
+    }
+
     /**
      * Given a name of a field, try to figure out what table it belongs to by looking
      * through all of the tables added via {@link #addScan}.
@@ -294,6 +359,54 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * @return the qualified names of the fields that the query reads, or
+     * null if it reads every field of some table (through a "*")
+     */
+    private HashSet<String> usedFields() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalFilterNode lf : filters) {
+            used.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList) {
+            used.add(si.fname);
+        }
+        for (LogicalSelectListNode agg : aggs) {
+            used.add(agg.fname);
+        }
+        used.addAll(groupByFields);
+        if (hasOrderBy) {
+            used.add(oByField);
+        }
+        for (String name : used) {
+            if (name == null || name.endsWith(".*")) {
+                return null;
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return the indices of the fields of td named in used
+     */
+    private static int[] usedColumns(TupleDesc td, HashSet<String> used) {
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(td.getFieldName(i))) {
+                columns.add(i);
+            }
+        }
+        int[] result = new int[columns.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = columns.get(i);
+        }
+        return result;
+    }
+
     /**
      * Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      * find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
@@ -314,6 +427,7 @@ public class LogicalPlan {
         HashMap<String, String> equivMap = new HashMap<String, String>();
         HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        HashSet<String> usedFields = usedFields();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -323,6 +437,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            if (usedFields != null) {
+                ss.setColumns(usedColumns(ss.getTupleDesc(), usedFields));
+            }
 
             subplanMap.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
@@ -407,7 +524,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             DbIterator j;
-            j = jo.instantiateJoin(lj, plan1, plan2);
+            j = jo.instantiateJoin(lj, plan1, plan2, statsMap, filterSelectivities,
+                    !joinIt.hasNext());
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -439,7 +557,12 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField != null ? 1 : 0);
+                int aggIndex = aggregateIndex(si);
+                if (aggIndex < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname
+                            + ") in SELECT list is not computed by the query");
+                }
+                outFields.add(groupByFields.size() + aggIndex);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -451,16 +574,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                if (groupByField == null) {
+                int groupIndex = groupByFields.indexOf(si.fname);
+                if (groupIndex < 0) {
                     throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                 }
-                outFields.add(0);
+                outFields.add(groupIndex);
                 TupleDesc td = node.getTupleDesc();
                 int id;
                 try {
-                    id = td.fieldNameToIndex(groupByField);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " + groupByField + " in GROUP BY statement");
+                    throw new ParsingException("Unknown field " + si.fname + " in GROUP BY statement");
                 }
                 outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -487,10 +611,17 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                        td.fieldNameToIndex(aggField),
-                        groupByField == null ? Aggregator.NO_GROUPING : td.fieldNameToIndex(groupByField),
-                        getAggOp(aggOp));
+                int[] afields = new int[aggs.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggs.size()];
+                for (int i = 0; i < aggs.size(); i++) {
+                    afields[i] = td.fieldNameToIndex(aggs.elementAt(i).fname);
+                    aops[i] = getAggOp(aggs.elementAt(i).aggOp);
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                }
+                aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -500,10 +631,33 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            // a sort-merge join may already have produced the right order
+            if (!oByAsc || !SortMergeJoin.isSortedOn(node, oByIndex)) {
+                // only the first offset + limit tuples are ever needed; if
+                // they don't fit in memory, OrderBy sorts them on disk
+                int n = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+                if (hasLimit && !hasDistinct && GraceHashJoin.fitsInMemory(n,
+                        node.getTupleDesc(), OrderBy.DEFAULT_MEMORY_PAGES)) {
+                    node = new TopN(oByIndex, oByAsc, n, node);
+                } else {
+                    node = new OrderBy(oByIndex, oByAsc, node);
+                }
+            }
+        }
+
+        node = new Project(outFields, outTypes, node);
+
+        if (hasDistinct) {
+            // spilled tuples would come out after the rest, out of order
+            node = new Distinct(node, Distinct.DEFAULT_MEMORY_PAGES, hasOrderBy);
+        }
+
+        if (hasLimit) {
+            node = new Limit(limit, offset, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        return node;
     }
 
     public static void main(String argv[]) {
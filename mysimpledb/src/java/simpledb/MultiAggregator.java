@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes any number of aggregates, grouped by any number of fields, in a
+ * single pass over its input.
+ * <p/>
+ * Groups are numbered by a {@link GroupTable}, which stores their keys
+ * packed into one byte array, and the aggregate values of each group are kept
+ * in int arrays indexed by group number, so merging a tuple doesn't allocate
+ * any per-group or per-tuple objects.
+ * <p/>
+ * The output tuples hold the group fields, in the order given, followed by
+ * one int field per aggregate (two for SUM_COUNT). Groups come out in the
+ * order they were first seen.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_GROUPS = 16;
+
+    private final int[] gbfields;
+    private final Type[] gbtypes;
+    private final int[] afields;
+    private final Op[] ops;
+    private final boolean[] intAfield;
+
+    private final GroupTable groups;
+    // per aggregate and group: the min/max/sum/count, and the count or
+    // sumCount that AVG, SUM_COUNT and SC_AVG divide by
+    private int[][] acc, aux;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param td       the TupleDesc of the tuples that will be merged
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple;
+     *                 empty if there is no grouping
+     * @param afields  the 0-based index of the field of each aggregate
+     * @param ops      the aggregation operator of each aggregate
+     * @throws IllegalArgumentException if afields and ops differ in length, or
+     *                                  if a string field is aggregated with
+     *                                  anything but COUNT
+     */
+    public MultiAggregator(TupleDesc td, int[] gbfields, int[] afields, Op[] ops) {
+        if (afields.length != ops.length) {
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        }
+        this.gbfields = gbfields.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.gbtypes = new Type[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            gbtypes[i] = td.getFieldType(gbfields[i]);
+        }
+        this.intAfield = new boolean[afields.length];
+        for (int j = 0; j < afields.length; j++) {
+            intAfield[j] = td.getFieldType(afields[j]) == Type.INT_TYPE;
+            if (!intAfield[j] && ops[j] != Op.COUNT) {
+                throw new IllegalArgumentException("Invalid operator type " + ops[j]
+                        + " for a string field");
+            }
+        }
+
+        groups = new GroupTable(gbtypes);
+        acc = new int[ops.length][INITIAL_GROUPS];
+        aux = new int[ops.length][INITIAL_GROUPS];
+    }
+
+    /**
+     * @return the TupleDesc of the tuples returned by {@link #iterator}
+     */
+    public TupleDesc getTupleDesc() {
+        ArrayList<Type> types = new ArrayList<Type>(Arrays.asList(gbtypes));
+        for (Op op : ops) {
+            types.add(Type.INT_TYPE);
+            if (op == Op.SUM_COUNT)
+                types.add(Type.INT_TYPE);
+        }
+        return new TupleDesc(types.toArray(new Type[types.size()]));
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor
+     *
+     * @param tup the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int g = groups.find(tup, gbfields);
+        if (g < 0) {
+            g = groups.addFound();
+            newGroup(g);
+        }
+
+        for (int j = 0; j < ops.length; j++) {
+            int x = intAfield[j] ? ((IntField) tup.getField(afields[j])).getValue() : 0;
+            switch (ops[j]) {
+                case MIN:
+                    acc[j][g] = Math.min(acc[j][g], x);
+                    break;
+                case MAX:
+                    acc[j][g] = Math.max(acc[j][g], x);
+                    break;
+                case SUM:
+                    acc[j][g] += x;
+                    break;
+                case COUNT:
+                    acc[j][g]++;
+                    break;
+                case AVG:
+                case SUM_COUNT:
+                    acc[j][g] += x;
+                    aux[j][g]++;
+                    break;
+                case SC_AVG:
+                    acc[j][g] += x;
+                    aux[j][g] += ((IntField) tup.getField(afields[j] + 1)).getValue();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Makes room for and initializes the aggregate values of a new group.
+     */
+    private void newGroup(int g) {
+        if (g == acc[0].length) {
+            for (int j = 0; j < ops.length; j++) {
+                acc[j] = Arrays.copyOf(acc[j], g * 2);
+                aux[j] = Arrays.copyOf(aux[j], g * 2);
+            }
+        }
+        for (int j = 0; j < ops.length; j++) {
+            if (ops[j] == Op.MIN)
+                acc[j][g] = Integer.MAX_VALUE;
+            else if (ops[j] == Op.MAX)
+                acc[j][g] = Integer.MIN_VALUE;
+            else
+                acc[j][g] = 0;
+            aux[j][g] = 0;
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group fields followed by the
+     * aggregate values, as described in the class comment
+     */
+    public DbIterator iterator() {
+        TupleDesc td = getTupleDesc();
+        ArrayList<Tuple> result = new ArrayList<Tuple>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            Tuple tup = new Tuple(td);
+            groups.getKey(g, tup, 0);
+            int f = gbtypes.length;
+            for (int j = 0; j < ops.length; j++) {
+                switch (ops[j]) {
+                    case AVG:
+                    case SC_AVG:
+                        tup.setField(f++, new IntField(acc[j][g] / aux[j][g]));
+                        break;
+                    case SUM_COUNT:
+                        tup.setField(f++, new IntField(acc[j][g]));
+                        tup.setField(f++, new IntField(aux[j][g]));
+                        break;
+                    default:
+                        tup.setField(f++, new IntField(acc[j][g]));
+                }
+            }
+            result.add(tup);
+        }
+        return new TupleIterator(td, Collections.unmodifiableList(result));
+    }
+}
@@ -4,10 +4,27 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p/>
+ * If the child fits in the memory budget it is sorted in memory. Otherwise
+ * OrderBy does an external merge sort: it sorts the child one budget's worth
+ * of tuples at a time, writes each sorted run to a {@link SpillFile}, and
+ * merges the runs with a k-way merge, MAX_FAN_IN runs at a time, into a
+ * single sorted file that rewind() can replay.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default number of pages' worth of tuples sorted in memory at once.
+     */
+    public static final int DEFAULT_MEMORY_PAGES = 1024;
+
+    /**
+     * Maximum number of runs merged in one pass.
+     */
+    public static final int MAX_FAN_IN = 64;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,20 +32,43 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int memoryPages;
+
+    // the sorted output, when it didn't fit in memory
+    private transient SpillFile sorted;
+    private transient DbIterator sortedIt;
 
     /**
-     * Creates a new OrderBy node over the tuples from the iterator.
+     * Creates a new OrderBy node over the tuples from the iterator. Uses
+     * DEFAULT_MEMORY_PAGES as the memory budget.
      *
      * @param orderbyField the field to which the sort is applied.
      * @param asc          true if the sort order is ascending.
      * @param child        the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc          true if the sort order is ascending.
+     * @param child        the tuples to sort.
+     * @param memoryPages  the number of pages' worth of tuples that may be
+     *                     held in memory at once
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int memoryPages) {
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("memoryPages must be positive");
+        }
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryPages = memoryPages;
     }
 
     public boolean isASC() {
@@ -47,24 +87,132 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return true if the last open() had to spill sorted runs to disk
+     */
+    public boolean hasSpilled() {
+        return sorted != null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // drop the runs of an earlier open() that wasn't closed
+        discardSorted();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        int budget = Math.max(1, memoryPages * BufferPool.getPageSize() / td.getSize());
+        TupleComparator comparator = new TupleComparator(orderByField, asc);
+        ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+        childTups.clear();
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            if (childTups.size() >= budget && child.hasNext()) {
+                runs.add(writeRun(comparator));
+            }
+        }
+        if (runs.isEmpty()) {
+            // the whole child fit in memory
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        } else {
+            runs.add(writeRun(comparator));
+            childTups = new ArrayList<Tuple>();
+            while (runs.size() > 1) {
+                ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+                for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+                    merged.add(merge(runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN)),
+                            comparator));
+                }
+                runs = merged;
+            }
+            sorted = runs.get(0);
+            sortedIt = sorted.iterator();
+            sortedIt.open();
+        }
         super.open();
     }
 
+    /**
+     * Sorts the buffered tuples and writes them to a new run.
+     */
+    private SpillFile writeRun(TupleComparator comparator) throws DbException {
+        Collections.sort(childTups, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups) {
+            run.add(t);
+        }
+        childTups.clear();
+        return run;
+    }
+
+    /**
+     * Merges sorted runs into one sorted run, and deletes them. The heap
+     * holds the current tuple of each run; ties are broken by run order so
+     * the sort is stable.
+     */
+    private SpillFile merge(List<SpillFile> runs, final TupleComparator comparator)
+            throws DbException, TransactionAbortedException {
+        if (runs.size() == 1) {
+            return runs.get(0);
+        }
+        final Tuple[] heads = new Tuple[runs.size()];
+        DbIterator[] its = new DbIterator[runs.size()];
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(runs.size(),
+                new Comparator<Integer>() {
+                    public int compare(Integer a, Integer b) {
+                        int c = comparator.compare(heads[a], heads[b]);
+                        return c != 0 ? c : a - b;
+                    }
+                });
+        for (int i = 0; i < its.length; i++) {
+            its[i] = runs.get(i).iterator();
+            its[i].open();
+            if (its[i].hasNext()) {
+                heads[i] = its[i].next();
+                heap.add(i);
+            }
+        }
+        SpillFile out = new SpillFile(td);
+        while (!heap.isEmpty()) {
+            int i = heap.poll();
+            out.add(heads[i]);
+            if (its[i].hasNext()) {
+                heads[i] = its[i].next();
+                heap.add(i);
+            }
+        }
+        for (int i = 0; i < its.length; i++) {
+            its[i].close();
+            runs.get(i).delete();
+        }
+        return out;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        discardSorted();
+    }
+
+    /**
+     * Closes and deletes the sorted spill file, if open() wrote one.
+     */
+    private void discardSorted() {
+        if (sorted != null) {
+            sortedIt.close();
+            sorted.delete();
+            sorted = null;
+            sortedIt = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (sorted != null) {
+            sortedIt.rewind();
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -76,6 +224,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (sorted != null) {
+            return sortedIt.hasNext() ? sortedIt.next() : null;
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -93,25 +244,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-
-}
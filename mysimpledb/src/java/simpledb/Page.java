@@ -7,8 +7,9 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  * <p/>
- * For recovery purposes, pages MUST have a single constructor of the form:
- * Page(PageId id, byte[] data)
+ * For recovery purposes, pages MUST have a constructor of the form:
+ * Page(PageId id, byte[] data), and no other constructor with two arguments
+ * of which the second is a byte array.
  */
 public interface Page {
 
@@ -50,6 +51,15 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Writes the bytes that {@link #getPageData} returns into buf, starting at
+     * its current position, without allocating a new array. Lets callers that
+     * write many pages reuse one buffer.
+     *
+     * @param buf a big-endian buffer with at least a page's worth of room
+     */
+    public void writePageData(java.nio.ByteBuffer buf);
+
     /**
      * Provide a representation of this page before any modifications were made
      * to it.  Used by recovery.
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * PageCompressor encodes the bytes of a {@link HeapPage} column by column,
+ * for {@link CompressedFile}. Only the used slots are stored:
+ * <ul>
+ * <li>the header bitmap of used slots, as it is;</li>
+ * <li>then for each field, the values of the used slots in slot order. A
+ * string field is replaced by a dictionary of its distinct values (each its
+ * length and bytes) and the dictionary code of each slot;</li>
+ * <li>each sequence of ints (the values of an int field, or the codes of a
+ * string field) is stored either bit-packed, as its minimum and each value's
+ * offset from it in just enough bits for the largest offset, or run-length
+ * encoded, as two bit-packed sequences of run values and run lengths --
+ * whichever is smaller.</li>
+ * </ul>
+ * A page that this doesn't make smaller (a page of random ints, say) is
+ * stored as it is, after a byte saying so. Decompressing gives back the page
+ * with the same tuples in the same slots, and empty slots zeroed.
+ */
+class PageCompressor {
+
+    // the first byte of a compressed page
+    private static final byte RAW = 0, COLUMNAR = 1;
+    // the first byte of a sequence of ints
+    private static final byte PACKED = 0, RLE = 1;
+
+    private PageCompressor() {
+    }
+
+    /**
+     * @return the number of slots on a HeapPage of the given size
+     */
+    private static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * Compresses the bytes of a HeapPage.
+     *
+     * @param page     the page, as written by {@link HeapPage#getPageData}
+     * @param td       the TupleDesc of the page's table
+     * @param pageSize the size of the page
+     * @return the compressed page
+     */
+    static byte[] compress(byte[] page, TupleDesc td, int pageSize) {
+        int numSlots = numSlots(td, pageSize);
+        int headerSize = (numSlots + 7) / 8;
+        int tupleSize = td.getSize();
+        int[] used = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if ((page[i / 8] & (1 << (i % 8))) != 0) {
+                used[n++] = headerSize + i * tupleSize;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(pageSize / 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(COLUMNAR);
+            out.write(page, 0, headerSize);
+            int fieldOffset = 0;
+            int[] values = new int[n];
+            for (int j = 0; j < td.numFields(); j++) {
+                Type type = td.getFieldType(j);
+                if (type == Type.INT_TYPE) {
+                    for (int k = 0; k < n; k++) {
+                        values[k] = SlottedPage.getInt(page, used[k] + fieldOffset);
+                    }
+                } else {
+                    HashMap<String, Integer> codes = new HashMap<String, Integer>();
+                    ArrayList<String> dictionary = new ArrayList<String>();
+                    for (int k = 0; k < n; k++) {
+                        int off = used[k] + fieldOffset;
+                        int len = Math.min(SlottedPage.getInt(page, off), Type.STRING_LEN);
+                        String s = new String(page, off + 4, len, StandardCharsets.ISO_8859_1);
+                        Integer code = codes.get(s);
+                        if (code == null) {
+                            code = dictionary.size();
+                            codes.put(s, code);
+                            dictionary.add(s);
+                        }
+                        values[k] = code;
+                    }
+                    out.writeInt(dictionary.size());
+                    for (String s : dictionary) {
+                        out.writeByte(s.length());
+                        out.writeBytes(s);
+                    }
+                }
+                writeInts(out, values, n);
+                fieldOffset += type.getLen();
+            }
+            out.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new RuntimeException(e);
+        }
+        if (bytes.size() >= pageSize + 1) {
+            byte[] raw = new byte[pageSize + 1];
+            raw[0] = RAW;
+            System.arraycopy(page, 0, raw, 1, pageSize);
+            return raw;
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompresses a page written by {@link #compress}.
+     *
+     * @param compressed the compressed page
+     * @param td         the TupleDesc of the page's table
+     * @param pageSize   the size of the page
+     * @return the bytes of the HeapPage
+     */
+    static byte[] decompress(ByteBuffer compressed, TupleDesc td, int pageSize) {
+        byte[] page = new byte[pageSize];
+        if (compressed.get() == RAW) {
+            compressed.get(page);
+            return page;
+        }
+        int numSlots = numSlots(td, pageSize);
+        int headerSize = (numSlots + 7) / 8;
+        int tupleSize = td.getSize();
+        compressed.get(page, 0, headerSize);
+        int[] used = new int[numSlots];
+        int n = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if ((page[i / 8] & (1 << (i % 8))) != 0) {
+                used[n++] = headerSize + i * tupleSize;
+            }
+        }
+
+        int fieldOffset = 0;
+        int[] values = new int[n];
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                readInts(compressed, values, n);
+                for (int k = 0; k < n; k++) {
+                    SlottedPage.putInt(page, used[k] + fieldOffset, values[k]);
+                }
+            } else {
+                byte[][] dictionary = new byte[compressed.getInt()][];
+                for (int d = 0; d < dictionary.length; d++) {
+                    dictionary[d] = new byte[compressed.get() & 0xff];
+                    compressed.get(dictionary[d]);
+                }
+                readInts(compressed, values, n);
+                for (int k = 0; k < n; k++) {
+                    byte[] s = dictionary[values[k]];
+                    int off = used[k] + fieldOffset;
+                    SlottedPage.putInt(page, off, s.length);
+                    System.arraycopy(s, 0, page, off + 4, s.length);
+                }
+            }
+            fieldOffset += type.getLen();
+        }
+        return page;
+    }
+
+    /**
+     * Writes the first n values, run-length encoded if that is smaller than
+     * bit-packing them.
+     */
+    private static void writeInts(DataOutputStream out, int[] values, int n) throws IOException {
+        int runs = 0;
+        for (int k = 0; k < n; k++) {
+            if (k == 0 || values[k] != values[k - 1]) {
+                runs++;
+            }
+        }
+        int[] runValues = new int[runs];
+        int[] runLengths = new int[runs];
+        int r = -1;
+        for (int k = 0; k < n; k++) {
+            if (k == 0 || values[k] != values[k - 1]) {
+                runValues[++r] = values[k];
+            }
+            runLengths[r]++;
+        }
+        if (4 + packedSize(runValues, runs) + packedSize(runLengths, runs) < packedSize(values, n)) {
+            out.writeByte(RLE);
+            out.writeInt(runs);
+            writePacked(out, runValues, runs);
+            writePacked(out, runLengths, runs);
+        } else {
+            out.writeByte(PACKED);
+            writePacked(out, values, n);
+        }
+    }
+
+    /**
+     * Reads n values written by {@link #writeInts}.
+     */
+    private static void readInts(ByteBuffer in, int[] values, int n) {
+        if (in.get() == PACKED) {
+            readPacked(in, values, n);
+            return;
+        }
+        int runs = in.getInt();
+        int[] runValues = new int[runs];
+        int[] runLengths = new int[runs];
+        readPacked(in, runValues, runs);
+        readPacked(in, runLengths, runs);
+        int k = 0;
+        for (int r = 0; r < runs; r++) {
+            Arrays.fill(values, k, k + runLengths[r], runValues[r]);
+            k += runLengths[r];
+        }
+    }
+
+    /**
+     * @return the number of bits needed for the offset of the largest of the
+     * first n values from the smallest
+     */
+    private static int width(int[] values, int n) {
+        if (n == 0) {
+            return 0;
+        }
+        int min = values[0], max = values[0];
+        for (int k = 1; k < n; k++) {
+            min = Math.min(min, values[k]);
+            max = Math.max(max, values[k]);
+        }
+        return 64 - Long.numberOfLeadingZeros((long) max - min);
+    }
+
+    private static int packedSize(int[] values, int n) {
+        return 5 + (int) (((long) n * width(values, n) + 7) / 8);
+    }
+
+    /**
+     * Writes the minimum of the first n values, the bit width, and each
+     * value's offset from the minimum in that many bits.
+     */
+    private static void writePacked(DataOutputStream out, int[] values, int n) throws IOException {
+        int min = 0;
+        for (int k = 0; k < n; k++) {
+            min = k == 0 ? values[0] : Math.min(min, values[k]);
+        }
+        int width = width(values, n);
+        out.writeInt(min);
+        out.writeByte(width);
+        long bits = 0;
+        int numBits = 0;
+        for (int k = 0; k < n; k++) {
+            bits |= ((long) values[k] - min) << numBits;
+            numBits += width;
+            while (numBits >= 8) {
+                out.writeByte((int) bits);
+                bits >>>= 8;
+                numBits -= 8;
+            }
+        }
+        if (numBits > 0) {
+            out.writeByte((int) bits);
+        }
+    }
+
+    private static void readPacked(ByteBuffer in, int[] values, int n) {
+        int min = in.getInt();
+        int width = in.get();
+        long mask = (1L << width) - 1;
+        long bits = 0;
+        int numBits = 0;
+        for (int k = 0; k < n; k++) {
+            while (numBits < width) {
+                bits |= (long) (in.get() & 0xff) << numBits;
+                numBits += 8;
+            }
+            values[k] = (int) (min + (bits & mask));
+            bits >>>= width;
+            numBits -= width;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * PageTable holds the pages cached by the {@link BufferPool}, in the order
+ * they were last used, for its LRU replacement policy.
+ * <p/>
+ * Each page is kept in a slot, and the slots are linked into a doubly-linked
+ * list, from the most recently used to the least, through two arrays of
+ * slot numbers. Looking up a page, marking it used, adding it, removing it
+ * and finding the least recently used page each take constant time, and
+ * marking a page used allocates nothing. Slot 0 is the head of the list:
+ * its next slot is the most recently used page, and its previous one the
+ * least. The arrays grow when every slot is taken; freed slots are reused.
+ * <p/>
+ * A PageTable is not synchronized; the BufferPool guards it with its own
+ * lock.
+ */
+class PageTable {
+
+    private final HashMap<PageId, Integer> slots = new HashMap<PageId, Integer>();
+    private PageId[] ids;
+    private Page[] pages;
+    private int[] prev, next;
+    // the slots that are free, as a stack
+    private int[] free;
+    private int numFree;
+    // the slots from here on have never been used
+    private int fresh = 1;
+
+    /**
+     * @param capacity the number of pages to make room for at first
+     */
+    PageTable(int capacity) {
+        int n = Math.max(2, capacity + 1);
+        ids = new PageId[n];
+        pages = new Page[n];
+        prev = new int[n];
+        next = new int[n];
+        free = new int[n];
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    boolean contains(PageId pid) {
+        return slots.containsKey(pid);
+    }
+
+    /**
+     * @return the cached page, or null if it isn't cached; its place in the
+     * order of use doesn't change
+     */
+    Page get(PageId pid) {
+        Integer slot = slots.get(pid);
+        return slot == null ? null : pages[slot];
+    }
+
+    /**
+     * Marks a page as the most recently used.
+     *
+     * @return the cached page, or null if it isn't cached
+     */
+    Page use(PageId pid) {
+        Integer slot = slots.get(pid);
+        if (slot == null) {
+            return null;
+        }
+        unlink(slot);
+        linkFirst(slot);
+        return pages[slot];
+    }
+
+    /**
+     * Caches a page. A page that isn't cached yet becomes the most recently
+     * used; one that is has its slot's page replaced and keeps its place.
+     *
+     * @return the page that was cached under pid before, or null
+     */
+    Page put(PageId pid, Page page) {
+        Integer slot = slots.get(pid);
+        if (slot != null) {
+            Page old = pages[slot];
+            pages[slot] = page;
+            return old;
+        }
+        int s = allocate();
+        ids[s] = pid;
+        pages[s] = page;
+        slots.put(pid, s);
+        linkFirst(s);
+        return null;
+    }
+
+    /**
+     * Removes a page from the table.
+     *
+     * @return the page, or null if it wasn't cached
+     */
+    Page remove(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot == null) {
+            return null;
+        }
+        Page page = pages[slot];
+        unlink(slot);
+        ids[slot] = null;
+        pages[slot] = null;
+        free[numFree++] = slot;
+        return page;
+    }
+
+    /**
+     * @return the id of the least recently used page, or null if the table
+     * is empty
+     */
+    PageId leastRecentlyUsed() {
+        return ids[prev[0]];
+    }
+
+    /**
+     * @return the ids of the cached pages, from the most recently used to
+     * the least; a copy, so the table can be changed while it is walked
+     */
+    List<PageId> ids() {
+        List<PageId> result = new ArrayList<PageId>(slots.size());
+        for (int s = next[0]; s != 0; s = next[s]) {
+            result.add(ids[s]);
+        }
+        return result;
+    }
+
+    private int allocate() {
+        if (numFree > 0) {
+            return free[--numFree];
+        }
+        if (fresh == ids.length) {
+            int n = ids.length * 2;
+            ids = Arrays.copyOf(ids, n);
+            pages = Arrays.copyOf(pages, n);
+            prev = Arrays.copyOf(prev, n);
+            next = Arrays.copyOf(next, n);
+            free = Arrays.copyOf(free, n);
+        }
+        return fresh++;
+    }
+
+    private void linkFirst(int slot) {
+        int first = next[0];
+        next[slot] = first;
+        prev[slot] = 0;
+        prev[first] = slot;
+        next[0] = slot;
+    }
+
+    private void unlink(int slot) {
+        next[prev[slot]] = next[slot];
+        prev[next[slot]] = prev[slot];
+    }
+}
@@ -5,6 +5,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -13,6 +15,71 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * Zql doesn't know about LIMIT, so a "LIMIT n [OFFSET m]" clause at the
+     * end of the first statement is cut out before the statement is parsed.
+     * Only the text after the statement's last string literal is searched,
+     * so a literal containing "LIMIT" is left alone.
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*;$",
+            Pattern.CASE_INSENSITIVE);
+
+    // the LIMIT clause cut out of the statement being parsed, if any
+    private int pendingLimit = -1, pendingOffset = 0;
+
+    /**
+     * Removes a trailing LIMIT clause from the first statement in s, and
+     * remembers it for the next call to parseQueryLogicalPlan.
+     *
+     * @return the statement without its LIMIT clause
+     * @throws ParsingException if the limit or offset is too big
+     */
+    String stripLimitClause(String s) throws simpledb.ParsingException {
+        pendingLimit = -1;
+        pendingOffset = 0;
+        int end = statementEnd(s);
+        if (end < 0) {
+            return s;
+        }
+        int start = Math.max(s.lastIndexOf('\'', end), s.lastIndexOf('"', end)) + 1;
+        Matcher m = LIMIT_CLAUSE.matcher(s).region(start, end + 1);
+        if (!m.find()) {
+            return s;
+        }
+        try {
+            pendingLimit = Integer.parseInt(m.group(1));
+            pendingOffset = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            pendingLimit = -1;
+            pendingOffset = 0;
+            throw new simpledb.ParsingException("LIMIT or OFFSET too large: "
+                    + m.group().trim());
+        }
+        return s.substring(0, m.start()) + ";" + s.substring(end + 1);
+    }
+
+    /**
+     * @return the index of the semicolon that ends the first statement in s,
+     * skipping any in string literals, or -1 if there is none
+     */
+    private static int statementEnd(String s) {
+        char quote = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -137,6 +204,10 @@ public class Parser {
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
+        // subqueries are parsed by nested calls; the LIMIT belongs to this one
+        int limit = pendingLimit, offset = pendingOffset;
+        pendingLimit = -1;
+        pendingOffset = 0;
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
         // walk through tables in the FROM clause
@@ -183,23 +254,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -208,8 +275,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -219,20 +285,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                        + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                        + si.getColumn()) || groupByFields.contains(si
                         .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -242,12 +306,12 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupByField(groupByField);
         }
         // sort the data
 
@@ -268,6 +332,12 @@ public class Parser {
             lp.addOrderBy(f.getValue(), oby.getAscOrder());
 
         }
+        if (q.isDistinct()) {
+            lp.addDistinct();
+        }
+        if (limit >= 0) {
+            lp.addLimit(limit, offset);
+        }
         return lp;
     }
 
@@ -469,6 +539,7 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
+        s = stripLimitClause(s);
         ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
@@ -507,7 +578,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                statement.write(buf, 0, n);
+            }
+            String text = stripLimitClause(statement.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(text.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -585,7 +663,7 @@ public class Parser {
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = {"select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
+            "group by", "max(", "min(", "avg(", "count", "limit", "offset", "rollback", "commit",
             "insert", "delete", "values", "into"};
 
     public static void main(String argv[]) throws IOException {
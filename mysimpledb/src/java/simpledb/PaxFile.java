@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * PaxFile is a DbFile whose pages are {@link PaxPage}s, which store the
+ * tuples of a page field by field rather than tuple by tuple. A query that
+ * reads a few fields of a wide table then decodes only those, and a
+ * predicate or aggregate over one field reads contiguous values. The file
+ * holds as many tuples per page as a HeapFile with the same page size.
+ * <p/>
+ * Everything apart from the page format is as in HeapFile, which this
+ * extends. A table is stored this way by naming the "pax" format in its
+ * entry in the catalog file (see {@link Catalog#loadSchema}); {@link #convert}
+ * writes a PaxFile with the tuples of an existing table. The query planner
+ * tells each {@link SeqScan} the fields the query uses, which is what lets
+ * the pages skip the others.
+ *
+ * @see PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file, with pages of the
+     * given size.
+     */
+    public PaxFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+    }
+
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    /**
+     * Writes the tuples of a table to a new file in the PaxFile format,
+     * filling each page before starting the next.
+     *
+     * @param tuples   an iterator over the tuples, which is opened and closed
+     *                 here
+     * @param td       the TupleDesc of the tuples
+     * @param outFile  the file to write, replacing any existing contents
+     * @param pageSize the size of the pages to write
+     * @return the number of pages written
+     */
+    public static int convert(DbFileIterator tuples, TupleDesc td, File outFile,
+                              int pageSize)
+            throws IOException, DbException, TransactionAbortedException {
+        int numSlots = PaxPage.numSlots(td, pageSize);
+        if (numSlots == 0) {
+            throw new IllegalArgumentException("tuples of " + td
+                    + " don't fit on pages of " + pageSize + " bytes");
+        }
+        int[] columnStart = PaxPage.columnStarts(td, numSlots);
+        FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        int numPages = 0;
+        try {
+            byte[] page = new byte[pageSize];
+            int slot = 0;
+            tuples.open();
+            while (tuples.hasNext()) {
+                if (slot == numSlots) {
+                    writePage(out, page, numPages++);
+                    slot = 0;
+                }
+                PaxPage.putTuple(page, td, columnStart, slot++, tuples.next());
+            }
+            if (slot > 0 || numPages == 0) {
+                writePage(out, page, numPages++);
+            }
+        } finally {
+            tuples.close();
+            out.close();
+        }
+        return numPages;
+    }
+
+    private static void writePage(FileChannel out, byte[] page, int pgNo)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        long offset = (long) pgNo * page.length;
+        while (buf.hasRemaining()) {
+            out.write(buf, offset + buf.position());
+        }
+        java.util.Arrays.fill(page, (byte) 0);
+    }
+}
@@ -0,0 +1,392 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage is a page of a {@link PaxFile}. It holds the same tuples a
+ * {@link HeapPage} of the same size would, but stores them column by column
+ * (the PAX layout): after the header bitmap of used slots, the page has one
+ * minipage per field, holding that field's value for every slot in turn.
+ * The values are encoded as in a HeapPage, so an int takes 4 bytes and a
+ * string its length followed by {@link Type#STRING_LEN} bytes.
+ * <p/>
+ * A scan that reads only some of the fields of a wide table (see
+ * {@link #iterator(Predicate, int[])}) then touches only the minipages of
+ * those fields, and decodes nothing else. Empty slots are kept zeroed, so a
+ * page of zeroes is an empty page.
+ * <p/>
+ * As with a SlottedPage, the page keeps its bytes as they would be written
+ * to disk, and copies them only on the first change after they were read or
+ * last made the before image.
+ *
+ * @see PaxFile
+ */
+public class PaxPage implements TuplePage {
+
+    // the placeholder for string fields a projected tuple doesn't read
+    private static final StringField EMPTY_STRING = new StringField("", Type.STRING_LEN);
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    final int numSlots;
+    // the page size of the table
+    private final int pageSize;
+    // where the minipage of each field starts
+    private final int[] columnStart;
+    // the page as it would be written out; never modified while it is also
+    // the before image
+    private byte[] data;
+    // the fully decoded tuple of each slot, or null if it hasn't been decoded
+    private final Tuple[] tuples;
+    private int numEmpty;
+    // no slot below this one is empty
+    private int nextFreeSlot;
+
+    private boolean isdirty;
+    private TransactionId madedirty;
+
+    private boolean flushedToLog;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. The number
+     * of slots is the same as for a HeapPage of the table:
+     * floor((page size*8) / (tuple size * 8 + 1)).
+     *
+     * @see HeapPage#HeapPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        this.numSlots = numSlots(td, pageSize);
+        this.columnStart = columnStarts(td, numSlots);
+        if (data.length < pageSize) {
+            data = Arrays.copyOf(data, pageSize);
+        }
+        this.data = data;
+
+        numEmpty = 0;
+        nextFreeSlot = numSlots;
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (!isSlotUsed(i)) {
+                numEmpty++;
+                nextFreeSlot = i;
+            }
+        }
+        tuples = new Tuple[numSlots];
+
+        oldData = data;
+    }
+
+    /**
+     * @return the number of slots on a page of the given size
+     */
+    static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the offset of the minipage of each field on a page with the
+     * given number of slots
+     */
+    static int[] columnStarts(TupleDesc td, int numSlots) {
+        int[] starts = new int[td.numFields()];
+        int off = (numSlots + 7) / 8;
+        for (int j = 0; j < starts.length; j++) {
+            starts[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+        return starts;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots && (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    /**
+     * Returns the number of empty slots on this page.
+     */
+    public int getNumEmptySlots() {
+        return numEmpty;
+    }
+
+    /**
+     * @return whether the page has an empty slot
+     */
+    public boolean hasRoom() {
+        return numEmpty > 0;
+    }
+
+    /**
+     * Decodes one field of the tuple in a slot from its minipage.
+     */
+    private Field field(int slotId, int j) {
+        if (tuples[slotId] != null) {
+            return tuples[slotId].getField(j);
+        }
+        Type type = td.getFieldType(j);
+        int off = columnStart[j] + slotId * type.getLen();
+        if (type == Type.INT_TYPE) {
+            return new IntField(SlottedPage.getInt(data, off));
+        }
+        try {
+            return type.parse(new DataInputStream(
+                    new ByteArrayInputStream(data, off, type.getLen())));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Returns the tuple in a slot with the given fields decoded. A tuple
+     * with all its fields is cached; one with only some of them is built
+     * anew each time, and its other fields hold typed placeholders, -1 or
+     * the empty string, so that operators that write whole tuples out, such
+     * as a spilling OrderBy, can still serialize them.
+     *
+     * @param columns the fields to decode, or null for all of them
+     * @return the tuple, or null if the slot is empty
+     */
+    Tuple tuple(int slotId, int[] columns) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        if (columns == null) {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, field(slotId, j));
+            }
+            tuples[slotId] = t;
+        } else {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    t.setField(j, EMPTY_STRING);
+                }
+            }
+            for (int j : columns) {
+                t.setField(j, field(slotId, j));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Adds the specified tuple to the page, writing each of its fields into
+     * that field's minipage.
+     *
+     * @throws DbException if the page is full or the TupleDesc doesn't match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (numEmpty == 0) {
+            throw new DbException("This page is full.");
+        }
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("The tuple descs don't match.");
+        }
+        int i = nextFreeSlot;
+        while (isSlotUsed(i)) {
+            i++;
+        }
+        beforeModify();
+        putTuple(data, td, columnStart, i, t);
+        numEmpty--;
+        nextFreeSlot = i + 1;
+        t.setRecordId(new RecordId(pid, i));
+        tuples[i] = t;
+        if (numEmpty == 0) {
+            freeSpaceChanged();
+        }
+    }
+
+    /**
+     * Writes t into slot i of a page, and marks the slot used.
+     */
+    static void putTuple(byte[] page, TupleDesc td, int[] columnStart, int i, Tuple t) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        for (int j = 0; j < td.numFields(); j++) {
+            buf.position(columnStart[j] + i * td.getFieldType(j).getLen());
+            t.getField(j).serialize(buf);
+        }
+        page[i / 8] |= (byte) (1 << (i % 8));
+    }
+
+    /**
+     * Delete the specified tuple from the page, zeroing its values.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int i = rid.tupleno();
+        if (!isSlotUsed(i)) {
+            throw new DbException("This slot is not being used.");
+        }
+        beforeModify();
+        data[i / 8] &= (byte) ~(1 << (i % 8));
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            Arrays.fill(data, columnStart[j] + i * len, columnStart[j] + (i + 1) * len, (byte) 0);
+        }
+        tuples[i] = null;
+        t.setRecordId(new RecordId(null, 0));
+        numEmpty++;
+        nextFreeSlot = Math.min(nextFreeSlot, i);
+        if (numEmpty == 1) {
+            freeSpaceChanged();
+        }
+    }
+
+    /**
+     * Tells the page's file that the page has become full, or has room
+     * again.
+     */
+    private void freeSpaceChanged() {
+        DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (f instanceof HeapFile) {
+            ((HeapFile) f).updateFreeSpace(pid.pageNumber(), numEmpty > 0);
+        }
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public PaxPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new PaxPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Makes the current contents of the page its before image, without
+     * copying them; the next change copies them first.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * Gives the page its own copy of its bytes ahead of a change, if they are
+     * also the before image.
+     */
+    private void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == data) {
+                data = data.clone();
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * the PaxPage constructor reads back as an identical page.
+     */
+    public byte[] getPageData() {
+        return Arrays.copyOf(data, pageSize);
+    }
+
+    public void writePageData(ByteBuffer buf) {
+        buf.put(data, 0, pageSize);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isdirty = dirty;
+        this.madedirty = tid;
+    }
+
+    public TransactionId isDirty() {
+        return isdirty ? madedirty : null;
+    }
+
+    public void markFlushedToLog(boolean flushed) {
+        this.flushedToLog = flushed;
+    }
+
+    public boolean isFlushedToLog() {
+        return flushedToLog;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null, null);
+    }
+
+    public Iterator<Tuple> iterator(Predicate p) {
+        return iterator(p, null);
+    }
+
+    /**
+     * @param p       a predicate, or null
+     * @param columns the fields the caller reads, or null for all of them
+     * @return an iterator over the tuples on this page that satisfy p, with
+     * only the given fields decoded (see {@link #tuple})
+     */
+    public Iterator<Tuple> iterator(final Predicate p, final int[] columns) {
+        return new Iterator<Tuple>() {
+            private int currIdx = 0;
+            private Tuple next = null;
+
+            public boolean hasNext() {
+                while (next == null && currIdx < numSlots) {
+                    if (isSlotUsed(currIdx) && (p == null || field(currIdx, p.getField())
+                            .compare(p.getOp(), p.getOperand()))) {
+                        next = tuple(currIdx, columns);
+                    }
+                    currIdx++;
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
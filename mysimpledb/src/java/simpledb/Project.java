@@ -42,6 +42,13 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the index in the child's tuples of output field i
+     */
+    public int getChildField(int i) {
+        return outFieldIds.get(i);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
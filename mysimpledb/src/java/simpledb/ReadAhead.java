@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.BiConsumer;
+
+/**
+ * ReadAhead prefetches the pages a sequential scan of a HeapFile is about to
+ * read into the BufferPool in the background, so that the scan doesn't stop
+ * for a read at every page.
+ * <p/>
+ * The scan calls {@link #advance} as it moves on to each page. That queues
+ * reads of the next K pages, and if the page the scan wants is being
+ * prefetched, waits for it rather than reading it a second time. If its
+ * read is still queued and hasn't started, the scan takes it back and reads
+ * the page itself, rather than wait behind the reads queued before it. K is
+ * chosen so that the reads queued take about as long as the scan takes to
+ * get through them: it is one more than the ratio of the time a read takes
+ * to the time the scan spends on a page, both averaged over the last few
+ * pages, and it is limited to {@link #MAX_PAGES} and to a quarter of the
+ * BufferPool. A scan that decodes pages slowly thus reads just ahead of
+ * itself, and a fast one keeps several reads queued.
+ * <p/>
+ * {@link #close} stops the prefetching: reads that are queued and haven't
+ * started are skipped.
+ * <p/>
+ * Pages of a file that is read through its memory mapping are prefetched
+ * by one I/O thread, a daemon thread shared by all scans, which copies them
+ * out of the mapping. For a file read with positional reads the queued
+ * reads are all issued at once through {@link DbFile#readPageAsync}, so
+ * that they overlap; K is then the number of reads outstanding, and the
+ * time of a read is the time until it completes.
+ */
+class ReadAhead {
+
+    /**
+     * The most pages a scan reads ahead of itself.
+     */
+    static final int MAX_PAGES = 32;
+
+    // the weight of the latest time in the averages
+    private static final double ALPHA = 0.25;
+
+    private static final ExecutorService ioThread = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int tableId;
+    private final int numPages;
+    // whether reads are issued through readPageAsync
+    private final boolean overlapped;
+    // the pages from here on haven't been queued
+    private int nextToQueue;
+    // the pages queued and not read yet
+    private final HashSet<Integer> pending = new HashSet<Integer>();
+    // the pending pages whose read has started
+    private final HashSet<Integer> started = new HashSet<Integer>();
+    private volatile boolean closed;
+
+    // average nanoseconds per read, and spent by the scan on each page; 0
+    // until measured
+    private volatile double readNanos;
+    private double scanNanos;
+    private long lastAdvance;
+
+    /**
+     * @param tableId  the table being scanned
+     * @param numPages the number of pages in the table
+     * @param overlapped whether to issue the reads through readPageAsync
+     *                   rather than on the I/O thread
+     */
+    ReadAhead(int tableId, int numPages, boolean overlapped) {
+        this.tableId = tableId;
+        this.numPages = numPages;
+        this.overlapped = overlapped;
+    }
+
+    /**
+     * @return the number of pages to keep queued ahead of the scan
+     */
+    int window() {
+        int max = Math.max(1, Math.min(MAX_PAGES, Database.getBufferPool().numPages() / 4));
+        if (readNanos == 0 || scanNanos == 0) {
+            return Math.min(2, max);
+        }
+        return (int) Math.max(1, Math.min(max, Math.ceil(readNanos / scanNanos) + 1));
+    }
+
+    /**
+     * Called as the scan moves on to a page, before it fetches the page from
+     * the BufferPool. Queues reads of the pages after it, and waits for the
+     * page itself if it is being prefetched. If the page's read hasn't
+     * started, it is dropped, and the scan's fetch reads the page.
+     *
+     * @param pgNo the page the scan is moving on to
+     */
+    void advance(int pgNo) {
+        long now = System.nanoTime();
+        if (lastAdvance != 0) {
+            scanNanos = average(scanNanos, now - lastAdvance);
+        }
+        nextToQueue = Math.max(nextToQueue, pgNo + 1);
+        int last = Math.min(numPages - 1, pgNo + window());
+        while (!closed && nextToQueue <= last) {
+            queue(nextToQueue++);
+        }
+        synchronized (this) {
+            if (!started.contains(pgNo)) {
+                pending.remove(pgNo);
+            }
+            while (pending.contains(pgNo)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        // time spent waiting for the read isn't time spent on the page
+        lastAdvance = System.nanoTime();
+    }
+
+    private void queue(final int pgNo) {
+        synchronized (this) {
+            pending.add(pgNo);
+        }
+        if (overlapped) {
+            synchronized (this) {
+                started.add(pgNo);
+            }
+            final long start = System.nanoTime();
+            CompletableFuture<Boolean> read = Database.getBufferPool().prefetchPageAsync(
+                    new HeapPageId(tableId, pgNo));
+            read.whenComplete(new BiConsumer<Boolean, Throwable>() {
+                public void accept(Boolean wasRead, Throwable e) {
+                    if (wasRead != null && wasRead) {
+                        readNanos = average(readNanos, System.nanoTime() - start);
+                    }
+                    done(pgNo);
+                }
+            });
+            return;
+        }
+        ioThread.execute(new Runnable() {
+            public void run() {
+                if (!start(pgNo)) {
+                    return;
+                }
+                try {
+                    long start = System.nanoTime();
+                    if (Database.getBufferPool().prefetchPage(new HeapPageId(tableId, pgNo))) {
+                        readNanos = average(readNanos, System.nanoTime() - start);
+                    }
+                } finally {
+                    done(pgNo);
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks the read of a page queued on the I/O thread as started.
+     *
+     * @return false if the read is to be skipped, because the scan has
+     * taken it back or has been closed
+     */
+    private synchronized boolean start(int pgNo) {
+        if (closed || !pending.contains(pgNo)) {
+            done(pgNo);
+            return false;
+        }
+        started.add(pgNo);
+        return true;
+    }
+
+    private synchronized void done(int pgNo) {
+        pending.remove(pgNo);
+        started.remove(pgNo);
+        notifyAll();
+    }
+
+    private static double average(double average, long latest) {
+        return average == 0 ? latest : (1 - ALPHA) * average + ALPHA * latest;
+    }
+
+    /**
+     * Stops prefetching for the scan. Reads already issued through
+     * readPageAsync still complete.
+     */
+    void close() {
+        closed = true;
+    }
+}
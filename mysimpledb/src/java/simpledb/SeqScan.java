@@ -18,6 +18,8 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFileIterator fileiterator;
     private DbFile file;
+    private Predicate predicate;
+    private int[] columns;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -58,8 +60,35 @@ public class SeqScan implements DbIterator {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
 
+    /**
+     * Makes the scan return only the tuples that satisfy p, so that a heap
+     * file doesn't decode the others. Filter sets this on a SeqScan child; it
+     * takes effect at the next open().
+     *
+     * @param p the predicate, or null to return every tuple
+     */
+    public void setPredicate(Predicate p) {
+        this.predicate = p;
+    }
+
+    /**
+     * Tells the scan which fields of its tuples the query reads, so that a
+     * column-oriented file ({@link PaxFile}) decodes only those. The other
+     * fields of the tuples returned may be left unset. Takes effect at the
+     * next open().
+     *
+     * @param columns the indices of the fields read, or null for all of them
+     */
+    public void setColumns(int[] columns) {
+        this.columns = columns;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
-    	fileiterator = file.iterator(tid);
+    	if ((predicate != null || columns != null) && file instanceof HeapFile) {
+    		fileiterator = ((HeapFile) file).iterator(tid, predicate, columns);
+    	} else {
+    		fileiterator = file.iterator(tid);
+    	}
     	fileiterator.open();
     }
 
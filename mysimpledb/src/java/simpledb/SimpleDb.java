@@ -5,10 +5,11 @@ import java.io.*;
 public class SimpleDb {
     public static void main(String args[])
             throws DbException, TransactionAbortedException, IOException {
-        // convert a file
+        // convert a file:
+        // convert file.txt numColumns [types [separator [format [pageSize]]]]
         if (args[0].equals("convert")) {
             try {
-                if (args.length < 3 || args.length > 5) {
+                if (args.length < 3 || args.length > 7) {
                     System.err.println("Unexpected number of arguments to convert ");
                     return;
                 }
@@ -39,12 +40,52 @@ public class SimpleDb {
                             return;
                         }
                     }
-                    if (args.length == 5)
+                    if (args.length >= 5)
                         fieldSeparator = args[4].charAt(0);
                 }
 
-                HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                        BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                String format = args.length >= 6 ? args[5].toLowerCase() : "heap";
+                // the page size of a table declared with pagesize=N in the catalog
+                int pageSize = BufferPool.getPageSize();
+                if (args.length == 7) {
+                    try {
+                        pageSize = Integer.parseInt(args[6]);
+                    } catch (NumberFormatException e) {
+                        pageSize = -1;
+                    }
+                    if (pageSize <= 0) {
+                        System.err.println("Invalid page size " + args[6]);
+                        return;
+                    }
+                }
+                if (format.equals("slotted") || format.equals("pax")) {
+                    // encode as a heap file first, then copy its tuples
+                    File heapFile = File.createTempFile("convert", ".dat");
+                    heapFile.deleteOnExit();
+                    HeapFileEncoder.convert(sourceTxtFile, heapFile,
+                            pageSize, numOfAttributes, ts, fieldSeparator);
+                    HeapFile hf = new HeapFile(heapFile, new TupleDesc(ts), pageSize);
+                    Database.getCatalog().addTable(hf, "convert");
+                    if (format.equals("slotted"))
+                        SlottedFile.convert(hf.iterator(new TransactionId()), hf.getTupleDesc(),
+                                targetDatFile, pageSize);
+                    else
+                        PaxFile.convert(hf.iterator(new TransactionId()), hf.getTupleDesc(),
+                                targetDatFile, pageSize);
+                } else if (format.equals("compressed")) {
+                    File heapFile = File.createTempFile("convert", ".dat");
+                    heapFile.deleteOnExit();
+                    HeapFileEncoder.convert(sourceTxtFile, heapFile,
+                            pageSize, numOfAttributes, ts, fieldSeparator);
+                    CompressedFile.convert(heapFile, new TupleDesc(ts), targetDatFile,
+                            pageSize);
+                } else if (!format.equals("heap")) {
+                    System.err.println("Unknown storage format " + args[5]);
+                    return;
+                } else {
+                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                            pageSize, numOfAttributes, ts, fieldSeparator);
+                }
 
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * SlottedFile is a DbFile whose pages are {@link SlottedPage}s, which store
+ * strings in only as many bytes as they need rather than padded out to
+ * {@link Type#STRING_LEN}. Tables with short strings take a fraction of the
+ * pages of a HeapFile, and scans read correspondingly less.
+ * <p/>
+ * Everything apart from the page format is as in HeapFile, which this
+ * extends: page ids are HeapPageIds, the file grows by extents of zeroed
+ * pages, and inserts go through the free space map. For a SlottedPage the
+ * map records whether a page has room for the longest possible tuple, so a
+ * page the map calls full may still have some room for short tuples.
+ * <p/>
+ * A table is stored this way by naming the "slotted" format in its entry
+ * in the catalog file (see {@link Catalog#loadSchema}); {@link #convert}
+ * writes a SlottedFile with the tuples of an existing table.
+ *
+ * @see SlottedPage
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    /**
+     * Constructs a slotted file backed by the specified file, with pages of
+     * the given size, which can be at most 64KB.
+     */
+    public SlottedFile(File f, TupleDesc td, int pageSize) {
+        super(f, td, pageSize);
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages can be at most "
+                    + SlottedPage.MAX_PAGE_SIZE + " bytes");
+        }
+    }
+
+    TuplePage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    /**
+     * Writes the tuples of a table to a new file in the SlottedFile format,
+     * filling each page before starting the next.
+     *
+     * @param tuples  an iterator over the tuples, which is opened and closed
+     *                here
+     * @param td      the TupleDesc of the tuples
+     * @param outFile the file to write, replacing any existing contents
+     * @param pageSize the size of the pages to write
+     * @return the number of pages written
+     */
+    public static int convert(DbFileIterator tuples, TupleDesc td, File outFile,
+                              int pageSize)
+            throws IOException, DbException, TransactionAbortedException {
+        int maxTuple = SlottedPage.maxTupleSize(td) + SlottedPage.SLOT_SIZE;
+        if (pageSize > SlottedPage.MAX_PAGE_SIZE
+                || SlottedPage.HEADER_SIZE + maxTuple > pageSize) {
+            throw new IllegalArgumentException("tuples of " + td
+                    + " don't fit on slotted pages of " + pageSize + " bytes");
+        }
+        FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        int numPages = 0;
+        try {
+            byte[] page = new byte[pageSize];
+            int numSlots = 0, dataBytes = 0;
+            tuples.open();
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                int size = SlottedPage.encodedSize(t);
+                if (SlottedPage.HEADER_SIZE + (numSlots + 1) * SlottedPage.SLOT_SIZE
+                        + dataBytes + size > pageSize) {
+                    writePage(out, page, numSlots, dataBytes, numPages++);
+                    numSlots = 0;
+                    dataBytes = 0;
+                }
+                dataBytes += size;
+                int start = pageSize - dataBytes;
+                SlottedPage.encode(t, page, start);
+                int slot = SlottedPage.HEADER_SIZE + numSlots * SlottedPage.SLOT_SIZE;
+                SlottedPage.putShort(page, slot, start);
+                SlottedPage.putShort(page, slot + 2, size);
+                numSlots++;
+            }
+            if (numSlots > 0 || numPages == 0) {
+                writePage(out, page, numSlots, dataBytes, numPages++);
+            }
+        } finally {
+            tuples.close();
+            out.close();
+        }
+        return numPages;
+    }
+
+    private static void writePage(FileChannel out, byte[] page, int numSlots,
+                                  int dataBytes, int pgNo) throws IOException {
+        SlottedPage.putInt(page, 0, numSlots);
+        SlottedPage.putInt(page, 4, dataBytes);
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        long offset = (long) pgNo * page.length;
+        while (buf.hasRemaining()) {
+            out.write(buf, offset + buf.position());
+        }
+        java.util.Arrays.fill(page, (byte) 0);
+    }
+}
@@ -0,0 +1,526 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedPage is a page of a {@link SlottedFile}. Unlike a {@link HeapPage},
+ * whose tuples all take the fixed size of their TupleDesc (and so store each
+ * string padded out to {@link Type#STRING_LEN} bytes), a SlottedPage stores
+ * each tuple in only as many bytes as its values need, and finds the tuples
+ * through a slot directory.
+ * <p/>
+ * The format of a page is:
+ * <ul>
+ * <li>a header of two ints: the number of entries in the slot directory, and
+ * the number of bytes of the tuple area at the end of the page in use</li>
+ * <li>the slot directory, which follows the header and grows towards the end
+ * of the page: for each slot, the offset of its tuple in the page and the
+ * tuple's length, as two unsigned shorts; an offset of 0 marks an empty
+ * slot</li>
+ * <li>the tuples themselves, which are packed from the end of the page
+ * towards the front. An int takes 4 bytes, and a string its length as a
+ * short followed by that many bytes</li>
+ * </ul>
+ * A page of zeroes is therefore an empty page, which is how
+ * {@link HeapFile} extends files. Since offsets are unsigned shorts, pages
+ * can be at most 64KB.
+ * <p/>
+ * A deleted tuple leaves a hole in the tuple area, and its slot is reused by
+ * a later insert (a RecordId names a slot, so slots are never moved). When
+ * an insert doesn't fit in the space between the directory and the tuple
+ * area but the page has enough room in all, the tuple area is compacted.
+ * <p/>
+ * As in HeapPage, tuples are decoded only when they are first asked for,
+ * and a predicate passed to {@link #iterator(Predicate)} is tested on the
+ * encoded field. The page keeps its bytes as they would be written to disk,
+ * and copies them only on the first change after they were read or last
+ * made the before image.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage implements TuplePage {
+
+    static final int HEADER_SIZE = 8;
+    static final int SLOT_SIZE = 4;
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the page size of the table
+    private final int pageSize;
+    // the page as it would be written out; never modified while it is also
+    // the before image
+    private byte[] data;
+    // the decoded tuple of each slot, or null if it hasn't been decoded
+    private Tuple[] tuples;
+    // the bytes taken up by the tuples on the page, not counting holes
+    private int liveBytes;
+    // whether the page had room for any tuple, as last told to the file
+    private boolean hadRoom;
+
+    private boolean isdirty;
+    private TransactionId madedirty;
+
+    private boolean flushedToLog;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described above. The TupleDesc is looked up in the Catalog.
+     *
+     * @throws IOException if the data isn't a well-formed page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getPageSize(id.getTableId());
+        if (pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("slotted pages can be at most "
+                    + MAX_PAGE_SIZE + " bytes");
+        }
+        if (data.length < pageSize) {
+            data = Arrays.copyOf(data, pageSize);
+        }
+        this.data = data;
+
+        int numSlots = numSlots();
+        if (HEADER_SIZE + numSlots * SLOT_SIZE + dataBytes() > pageSize) {
+            throw new IOException("malformed slotted page " + id.pageNumber());
+        }
+        liveBytes = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                liveBytes += slotLength(i);
+            }
+        }
+        tuples = new Tuple[numSlots];
+        hadRoom = hasRoom();
+
+        oldData = data;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of entries in the slot directory, used or not
+     */
+    public int numSlots() {
+        return getInt(data, 0);
+    }
+
+    private int dataBytes() {
+        return getInt(data, 4);
+    }
+
+    /**
+     * Returns true if the slot holds a tuple.
+     */
+    public boolean isSlotUsed(int i) {
+        return i < numSlots() && slotOffset(i) != 0;
+    }
+
+    private int slotOffset(int i) {
+        return getShort(data, HEADER_SIZE + i * SLOT_SIZE);
+    }
+
+    private int slotLength(int i) {
+        return getShort(data, HEADER_SIZE + i * SLOT_SIZE + 2);
+    }
+
+    /**
+     * @return the bytes on the page not taken up by the header, the slot
+     * directory or tuples
+     */
+    public int getFreeSpace() {
+        return pageSize - HEADER_SIZE - numSlots() * SLOT_SIZE - liveBytes;
+    }
+
+    /**
+     * @return whether the page has room for the longest tuple of its table,
+     * i.e. one with every string at its maximum length
+     */
+    public boolean hasRoom() {
+        return getFreeSpace() >= maxTupleSize(td) + SLOT_SIZE;
+    }
+
+    /**
+     * @return whether the page has room for t
+     */
+    public boolean hasRoomFor(Tuple t) {
+        int need = encodedSize(t);
+        if (firstFreeSlot() == numSlots()) {
+            need += SLOT_SIZE;
+        }
+        return getFreeSpace() >= need;
+    }
+
+    private int firstFreeSlot() {
+        int numSlots = numSlots();
+        int i = 0;
+        while (i < numSlots && slotOffset(i) != 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the tuple in a slot, decoding it the first time it is asked
+     * for.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    Tuple tuple(int slotId) {
+        if (!isSlotUsed(slotId)) {
+            return null;
+        }
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            int off = slotOffset(slotId);
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, decodeField(td.getFieldType(j), data, off));
+                off += encodedLength(td.getFieldType(j), data, off);
+            }
+            tuples[slotId] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Returns one field of the tuple in a used slot, without decoding the
+     * rest of the tuple if it hasn't been decoded yet.
+     */
+    private Field field(int slotId, int j) {
+        if (tuples[slotId] != null) {
+            return tuples[slotId].getField(j);
+        }
+        int off = slotOffset(slotId);
+        for (int k = 0; k < j; k++) {
+            off += encodedLength(td.getFieldType(k), data, off);
+        }
+        return decodeField(td.getFieldType(j), data, off);
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot.
+     *
+     * @throws DbException if the page doesn't have room for the tuple or the
+     *                     TupleDesc doesn't match
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("The tuple descs don't match.");
+        }
+        if (!hasRoomFor(t)) {
+            throw new DbException("This page is full.");
+        }
+        beforeModify();
+        int size = encodedSize(t);
+        int slot = firstFreeSlot();
+        int numSlots = numSlots();
+        if (slot == numSlots) {
+            numSlots++;
+            putInt(data, 0, numSlots);
+            if (tuples.length < numSlots) {
+                tuples = Arrays.copyOf(tuples, Math.max(numSlots, tuples.length * 2));
+            }
+        }
+        int start = pageSize - dataBytes() - size;
+        if (start < HEADER_SIZE + numSlots * SLOT_SIZE) {
+            compact();
+            start = pageSize - dataBytes() - size;
+        }
+        encode(t, data, start);
+        putInt(data, 4, dataBytes() + size);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE, start);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, size);
+        liveBytes += size;
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+        freeSpaceChanged();
+    }
+
+    /**
+     * Delete the specified tuple from the page. Empty slots at the end of the
+     * directory are dropped, and a page left with no tuples is reset to
+     * zeroes.
+     *
+     * @throws DbException if this tuple is not on this page, or its slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("This tuple is not on this page.");
+        }
+        int slot = rid.tupleno();
+        if (!isSlotUsed(slot)) {
+            throw new DbException("This slot is not being used.");
+        }
+        beforeModify();
+        liveBytes -= slotLength(slot);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE, 0);
+        putShort(data, HEADER_SIZE + slot * SLOT_SIZE + 2, 0);
+        tuples[slot] = null;
+        int numSlots = numSlots();
+        while (numSlots > 0 && slotOffset(numSlots - 1) == 0) {
+            numSlots--;
+        }
+        putInt(data, 0, numSlots);
+        if (numSlots == 0) {
+            Arrays.fill(data, (byte) 0);
+        }
+        t.setRecordId(new RecordId(null, 0));
+        freeSpaceChanged();
+    }
+
+    /**
+     * Moves the tuples to the end of the page, closing up the holes left by
+     * deleted tuples.
+     */
+    private void compact() {
+        int numSlots = numSlots();
+        byte[] compacted = new byte[data.length];
+        System.arraycopy(data, 0, compacted, 0, HEADER_SIZE + numSlots * SLOT_SIZE);
+        int end = pageSize;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int len = slotLength(i);
+                end -= len;
+                System.arraycopy(data, slotOffset(i), compacted, end, len);
+                putShort(compacted, HEADER_SIZE + i * SLOT_SIZE, end);
+            }
+        }
+        putInt(compacted, 4, pageSize - end);
+        data = compacted;
+    }
+
+    /**
+     * Tells the page's file when the page stops or starts having room.
+     */
+    private void freeSpaceChanged() {
+        boolean room = hasRoom();
+        if (room != hadRoom) {
+            hadRoom = room;
+            DbFile f = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (f instanceof HeapFile) {
+                ((HeapFile) f).updateFreeSpace(pid.pageNumber(), room);
+            }
+        }
+    }
+
+    /**
+     * Return a view of this page before it was modified
+     * -- used by recovery
+     */
+    public SlottedPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid, oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Makes the current contents of the page its before image, without
+     * copying them; the next change copies them first.
+     */
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+    }
+
+    /**
+     * Gives the page its own copy of its bytes ahead of a change, if they are
+     * also the before image.
+     */
+    private void beforeModify() {
+        synchronized (oldDataLock) {
+            if (oldData == data) {
+                data = data.clone();
+            }
+        }
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * the SlottedPage constructor reads back as an identical page.
+     */
+    public byte[] getPageData() {
+        return Arrays.copyOf(data, pageSize);
+    }
+
+    public void writePageData(ByteBuffer buf) {
+        buf.put(data, 0, pageSize);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.isdirty = dirty;
+        this.madedirty = tid;
+    }
+
+    public TransactionId isDirty() {
+        return isdirty ? madedirty : null;
+    }
+
+    public void markFlushedToLog(boolean flushed) {
+        this.flushedToLog = flushed;
+    }
+
+    public boolean isFlushedToLog() {
+        return flushedToLog;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page
+     */
+    public Iterator<Tuple> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p. Only
+     * the field p tests is decoded for tuples that fail it.
+     */
+    public Iterator<Tuple> iterator(final Predicate p) {
+        return new Iterator<Tuple>() {
+            private int currIdx = 0;
+            private Tuple next = null;
+
+            public boolean hasNext() {
+                int numSlots = numSlots();
+                while (next == null && currIdx < numSlots) {
+                    if (isSlotUsed(currIdx) && (p == null || field(currIdx, p.getField())
+                            .compare(p.getOp(), p.getOperand()))) {
+                        next = tuple(currIdx);
+                    }
+                    currIdx++;
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return the number of bytes t takes up on a page, not counting its
+     * slot
+     */
+    static int encodedSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(),
+                        Type.STRING_LEN);
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes the longest tuple with the given TupleDesc
+     * takes up on a page
+     */
+    static int maxTupleSize(TupleDesc td) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                size += 2 + Type.STRING_LEN;
+            } else {
+                size += td.getFieldType(j).getLen();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes t into page at off, in encodedSize(t) bytes.
+     */
+    static void encode(Tuple t, byte[] page, int off) {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            Field f = t.getField(j);
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                putShort(page, off, len);
+                off += 2;
+                for (int i = 0; i < len; i++) {
+                    page[off++] = (byte) s.charAt(i);
+                }
+            } else {
+                putInt(page, off, ((IntField) f).getValue());
+                off += 4;
+            }
+        }
+    }
+
+    private static Field decodeField(Type type, byte[] page, int off) {
+        if (type == Type.STRING_TYPE) {
+            int len = getShort(page, off);
+            return new StringField(new String(page, off + 2, len), Type.STRING_LEN);
+        }
+        return new IntField(getInt(page, off));
+    }
+
+    private static int encodedLength(Type type, byte[] page, int off) {
+        if (type == Type.STRING_TYPE) {
+            return 2 + getShort(page, off);
+        }
+        return type.getLen();
+    }
+
+    static int getInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+                | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    static void putInt(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    static int getShort(byte[] b, int off) {
+        return ((b[off] & 0xff) << 8) | (b[off + 1] & 0xff);
+    }
+
+    static void putShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+}
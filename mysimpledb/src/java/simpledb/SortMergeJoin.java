@@ -0,0 +1,276 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two relations by sorting both of them on
+ * their join fields and merging them. It supports equality and range
+ * (&lt;, &lt;=, &gt;, &gt;=) predicates.
+ * <p/>
+ * A child that is already sorted ascending on its join field (see
+ * {@link #isSortedOn}) is used as is; any other child is sorted with an
+ * {@link OrderBy}. The output is sorted ascending on the left join field,
+ * and for equality joins on the right join field as well.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child1, child2;
+    private JoinPredicate p;
+    private TupleDesc td;
+
+    // the children, sorted on their join fields
+    private DbIterator left, right;
+
+    private transient Tuple leftTuple;
+    private transient int pos, end;
+
+    // equality joins: the run of right tuples whose key equals groupKey, and
+    // the first right tuple past it
+    private transient ArrayList<Tuple> group;
+    private transient Field groupKey;
+    private transient Tuple rightPeek;
+
+    // range joins: the whole right relation, and the boundary of the tuples
+    // that match the current left tuple
+    private transient ArrayList<Tuple> rightTups;
+    private transient int bound;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality or
+     *                                  range predicate
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("SortMergeJoin does not support "
+                    + p.getOperator());
+        }
+        this.p = p;
+        setChildren(new DbIterator[]{child1, child2});
+    }
+
+    /**
+     * @return true if a SortMergeJoin can evaluate predicates with the given
+     * operator
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ
+                || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /**
+     * Returns true if the tuples of it are known to come out sorted in
+     * ascending order of the given field. This is the case for an ascending
+     * OrderBy on that field, for the join fields of a SortMergeJoin, and for
+     * operators that preserve the order of such a child.
+     *
+     * @param it    the iterator to check
+     * @param field the index of the field in it's TupleDesc
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        return isSortedOn(it, field, false);
+    }
+
+    /**
+     * As {@link #isSortedOn}, but also true for tuples sorted in descending
+     * order of the field. Either way, tuples with equal values of the field
+     * come out one after the other.
+     */
+    public static boolean isGroupedOn(DbIterator it, int field) {
+        return isSortedOn(it, field, true);
+    }
+
+    private static boolean isSortedOn(DbIterator it, int field, boolean descending) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return (descending || o.isASC()) && o.getOrderByField() == field;
+        } else if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            JoinPredicate jp = j.getJoinPredicate();
+            int n1 = j.getChildren()[0].getTupleDesc().numFields();
+            return field == jp.getField1()
+                    || (jp.getOperator() == Predicate.Op.EQUALS
+                    && field == n1 + jp.getField2());
+        } else if (it instanceof Filter) {
+            return isSortedOn(((Filter) it).getChildren()[0], field, descending);
+        } else if (it instanceof Project) {
+            Project p = (Project) it;
+            return isSortedOn(p.getChildren()[0], p.getChildField(field), descending);
+        } else if (it instanceof HashEquiJoin) {
+            // the outer child is streamed through the hash table in order
+            DbIterator outer = ((HashEquiJoin) it).getChildren()[0];
+            return field < outer.getTupleDesc().numFields()
+                    && isSortedOn(outer, field, descending);
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     * alias or table name.
+     */
+    public String getJoinField1Name() {
+        return Join.joinFieldName(child1, p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     * alias or table name.
+     */
+    public String getJoinField2Name() {
+        return Join.joinFieldName(child2, p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private boolean isEquiJoin() {
+        return p.getOperator() == Predicate.Op.EQUALS;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left.open();
+        right.open();
+        if (!isEquiJoin()) {
+            rightTups = new ArrayList<Tuple>();
+            while (right.hasNext()) {
+                rightTups.add(right.next());
+            }
+        }
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        leftTuple = null;
+        pos = end = 0;
+        group = new ArrayList<Tuple>();
+        groupKey = null;
+        rightPeek = null;
+        bound = 0;
+    }
+
+    public void close() {
+        left.close();
+        right.close();
+        rightTups = null;
+        group = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        if (isEquiJoin()) {
+            right.rewind();
+        }
+        reset();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of the joining tuples from
+     * the left and right relation, as in {@link Join}, in ascending order of
+     * the left join field.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (pos >= end) {
+            if (!left.hasNext()) {
+                return null;
+            }
+            leftTuple = left.next();
+            if (isEquiJoin()) {
+                advanceGroup(leftTuple.getField(p.getField1()));
+            } else {
+                advanceBound();
+            }
+        }
+        Tuple match = isEquiJoin() ? group.get(pos) : rightTups.get(pos);
+        pos++;
+        return Join.joinTuples(td, leftTuple, match);
+    }
+
+    /**
+     * Positions group on the right tuples whose key equals the given left
+     * key. Since both sides are sorted, the right side never moves back.
+     */
+    private void advanceGroup(Field key) throws TransactionAbortedException, DbException {
+        if (groupKey == null || !groupKey.compare(Predicate.Op.EQUALS, key)) {
+            group.clear();
+            groupKey = key;
+            while (rightPeek != null || right.hasNext()) {
+                Tuple t = rightPeek != null ? rightPeek : right.next();
+                rightPeek = null;
+                Field f = t.getField(p.getField2());
+                if (f.compare(Predicate.Op.LESS_THAN, key)) {
+                    continue;
+                }
+                if (f.compare(Predicate.Op.EQUALS, key)) {
+                    group.add(t);
+                } else {
+                    rightPeek = t;
+                    break;
+                }
+            }
+        }
+        pos = 0;
+        end = group.size();
+    }
+
+    /**
+     * Computes the range of right tuples matching leftTuple. For &lt; and
+     * &lt;= the matches are a suffix of the sorted right tuples, for &gt; and
+     * &gt;= a prefix; either way the boundary only moves forward as the left
+     * key grows.
+     */
+    private void advanceBound() {
+        Predicate.Op op = p.getOperator();
+        int n = rightTups.size();
+        if (op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ) {
+            while (bound < n && !p.filter(leftTuple, rightTups.get(bound))) {
+                bound++;
+            }
+            pos = bound;
+            end = n;
+        } else {
+            while (bound < n && p.filter(leftTuple, rightTups.get(bound))) {
+                bound++;
+            }
+            pos = 0;
+            end = bound;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        left = isSortedOn(child1, p.getField1()) ? child1
+                : new OrderBy(p.getField1(), true, child1);
+        right = isSortedOn(child2, p.getField2()) ? child2
+                : new OrderBy(p.getField2(), true, child2);
+    }
+
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that operators use to move state out
+ * of memory, e.g. the partitions of a hash join that doesn't fit in its memory
+ * budget. Tuples are written with the same fixed-width field encoding that
+ * HeapPage uses, but the file is private to the operator that created it: it
+ * is not registered in the Catalog and is not read through the BufferPool,
+ * since it never needs locking or recovery.
+ * <p/>
+ * A SpillFile is written with {@link #add} and then sealed by the first call
+ * to {@link #iterator}; after that it can be read any number of times.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates an empty spill file for tuples with the given TupleDesc.
+     *
+     * @throws DbException if the temporary file can't be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb-spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+        numTuples = 0;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Maps a field to one of numPartitions partitions. Each level of
+     * partitioning uses a different multiplier so that a partition split
+     * again doesn't put all its tuples back into one sub-partition.
+     *
+     * @param f             the field to hash
+     * @param depth         the partitioning level, starting at 0
+     * @param numPartitions the number of partitions at this level
+     */
+    public static int partition(Field f, int depth, int numPartitions) {
+        return partition(f.hashCode(), depth, numPartitions);
+    }
+
+    /**
+     * Maps a hash code to one of numPartitions partitions, as
+     * {@link #partition(Field, int, int)} does for the hash code of a field.
+     */
+    public static int partition(int hashCode, int depth, int numPartitions) {
+        int h = hashCode * (0x9E3779B9 + 2 * depth);
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % numPartitions;
+    }
+
+    /**
+     * @return the number of tuples written to this file
+     */
+    public int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return the number of bytes of tuple data in this file
+     */
+    public long size() {
+        return (long) numTuples * td.getSize();
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has already been sealed
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("spill file is sealed");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /**
+     * Appends every remaining tuple of the iterator to the file.
+     */
+    public void addAll(DbIterator it) throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            add(it.next());
+        }
+    }
+
+    private void seal() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * Seals the file and returns an iterator over its tuples, in the order
+     * they were added. The iterator must be opened before use.
+     */
+    public DbIterator iterator() throws DbException {
+        seal();
+        return new SpillIterator();
+    }
+
+    /**
+     * Deletes the file. The SpillFile can't be used afterwards.
+     */
+    public void delete() {
+        try {
+            seal();
+        } catch (DbException e) {
+            // we are throwing the data away anyway
+        }
+        file.delete();
+    }
+
+    private class SpillIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            close();
+            try {
+                in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_SIZE));
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() throws DbException {
+            if (in == null) {
+                throw new IllegalStateException("Operator not yet open");
+            }
+            return read < numTuples;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                in = null;
+            }
+        }
+    }
+}
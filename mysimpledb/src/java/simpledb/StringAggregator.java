@@ -12,8 +12,10 @@ public class StringAggregator implements Aggregator {
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
-    // a map of groupVal -> AggregateFields
+    // a map of groupVal -> AggregateFields, for string groups and no grouping
     private HashMap<String, AggregateFields> groups;
+    // a map of groupVal -> AggregateFields, for int groups
+    private IntHashMap<AggregateFields> intGroups;
 
     /**
      * Aggregate constructor
@@ -33,6 +35,11 @@ public class StringAggregator implements Aggregator {
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
         this.groups = new HashMap<String, AggregateFields>();
+        this.intGroups = new IntHashMap<AggregateFields>();
+    }
+
+    private boolean hasIntGroups() {
+        return gbfield != NO_GROUPING && gbfieldtype == Type.INT_TYPE;
     }
 
     /**
@@ -41,17 +48,33 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
-        if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
+        AggregateFields agg;
+        if (hasIntGroups()) {
+            int groupVal = ((IntField) tup.getField(gbfield)).getValue();
+            agg = intGroups.get(groupVal);
+            if (agg == null) {
+                agg = new AggregateFields(tup.getField(gbfield));
+                intGroups.put(groupVal, agg);
+            }
+        } else {
+            String groupVal = "";
+            Field groupField = null;
+            if (gbfield != NO_GROUPING) {
+                groupField = tup.getField(gbfield);
+                groupVal = groupField.toString();
+            }
+            agg = groups.get(groupVal);
+            if (agg == null) {
+                agg = new AggregateFields(groupField);
+                groups.put(groupVal, agg);
+            }
         }
-        AggregateFields agg = groups.get(groupVal);
-        if (agg == null)
-            agg = new AggregateFields(groupVal);
 
         agg.count++;
+    }
 
-        groups.put(groupVal, agg);
+    public int numGroups() {
+        return hasIntGroups() ? intGroups.size() : groups.size();
     }
 
     /**
@@ -75,23 +98,15 @@ public class StringAggregator implements Aggregator {
         }
 
         // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
-            AggregateFields agg = groups.get(groupVal);
-            Tuple tup = new Tuple(td);
-
-            if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
+        if (hasIntGroups()) {
+            IntHashMap<AggregateFields>.Cursor c = intGroups.cursor();
+            while (c.advance()) {
+                result.add(summaryTuple(td, aggField, c.value()));
             }
-
-            switch (what) {
-                case COUNT:
-                    tup.setField(aggField, new IntField(agg.count));
-                    break;
+        } else {
+            for (AggregateFields agg : groups.values()) {
+                result.add(summaryTuple(td, aggField, agg));
             }
-
-            result.add(tup);
         }
 
         DbIterator retVal = null;
@@ -99,14 +114,29 @@ public class StringAggregator implements Aggregator {
         return retVal;
     }
 
+    private Tuple summaryTuple(TupleDesc td, int aggField, AggregateFields agg) {
+        Tuple tup = new Tuple(td);
+
+        if (gbfield != NO_GROUPING) {
+            tup.setField(0, agg.groupVal);
+        }
+
+        switch (what) {
+            case COUNT:
+                tup.setField(aggField, new IntField(agg.count));
+                break;
+        }
+        return tup;
+    }
+
     /**
      * A helper struct to store accumulated aggregate values.
      */
     private class AggregateFields {
-        public String groupVal;
+        public Field groupVal;
         public int count;
 
-        public AggregateFields(String groupVal) {
+        public AggregateFields(Field groupVal) {
             this.groupVal = groupVal;
             count = 0;
         }
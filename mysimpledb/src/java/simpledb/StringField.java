@@ -48,12 +48,13 @@ public class StringField implements Field {
     /**
      * Write this string to dos. Always writes maxSize + 4 bytes to the passed
      * in dos. First four bytes are string length, next bytes are string, with
-     * remainder padded with 0 to maxSize.
+     * remainder padded with 0 to maxSize. A null string is written as the
+     * empty string.
      *
      * @param dos Where the string is written
      */
     public void serialize(DataOutputStream dos) throws IOException {
-        String s = value;
+        String s = value == null ? "" : value;
         int overflow = maxSize - s.length();
         if (overflow < 0) {
             String news = s.substring(0, maxSize);
@@ -65,6 +66,22 @@ public class StringField implements Field {
             dos.write((byte) 0);
     }
 
+    /**
+     * Write this string to buf, in the same format as
+     * {@link #serialize(DataOutputStream)}.
+     */
+    public void serialize(java.nio.ByteBuffer buf) {
+        String s = value == null ? "" : value;
+        int len = Math.min(s.length(), maxSize);
+        buf.putInt(len);
+        for (int i = 0; i < len; i++) {
+            buf.put((byte) s.charAt(i));
+        }
+        for (int i = len; i < maxSize; i++) {
+            buf.put((byte) 0);
+        }
+    }
+
     /**
      * Compare the specified field to the value of this Field. Return semantics
      * are as specified by Field.compare
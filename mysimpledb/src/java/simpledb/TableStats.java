@@ -65,6 +65,7 @@ public class TableStats {
     int ioCostPerPage = IOCOSTPERPAGE;
     int tableid;
     int numpages;
+    int pageSize;
     int totaltuples;
     TupleDesc td;
 	HashMap<String, IntHistogram> intHistogramMap;
@@ -85,6 +86,7 @@ public class TableStats {
     	HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
     	HashMap<String, int[]> minmax = findminandmax(file);
     	this.numpages = file.numPages();
+    	this.pageSize = file.getPageSize();
     	this.td = file.getTupleDesc();
     	TransactionId tid = new TransactionId();
     	DbFileIterator iterator = file.iterator(tid); 
@@ -217,11 +219,15 @@ public class TableStats {
      * if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
+     * <p/>
+     * costPerPageIO is the cost of a page of the default size; reading a page
+     * of a table with larger or smaller pages costs proportionally more or
+     * less.
      *
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-    	return numpages * ioCostPerPage; 
+    	return numpages * ioCostPerPage * ((double) pageSize / BufferPool.getPageSize());
    }
 
     /**
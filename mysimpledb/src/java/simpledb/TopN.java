@@ -0,0 +1,136 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an ORDER BY followed by a LIMIT: it returns the first n tuples of
+ * its child in the order an {@link OrderBy} on the same field would, but
+ * only ever holds n tuples in memory. The child is read once into a bounded
+ * heap whose head is the last of the current top n tuples.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int orderByField;
+    private final boolean asc;
+    private final int n;
+
+    private transient ArrayList<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * An input tuple and its position in the child, so that equal tuples
+     * keep their input order as they would in OrderBy.
+     */
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc          true if the sort order is ascending.
+     * @param n            the number of tuples to return
+     * @param child        the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, DbIterator child) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative");
+        }
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.n = n;
+        this.child = child;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator order = new TupleComparator(orderByField, asc);
+        Comparator<Entry> outputOrder = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = order.compare(a.t, b.t);
+                if (c != 0) {
+                    return c;
+                }
+                return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+            }
+        };
+        top = new ArrayList<Tuple>();
+        if (n > 0) {
+            PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(n, 1024),
+                    Collections.reverseOrder(outputOrder));
+            long seq = 0;
+            while (child.hasNext()) {
+                Entry e = new Entry(child.next(), seq++);
+                if (heap.size() < n) {
+                    heap.add(e);
+                } else if (outputOrder.compare(e, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(e);
+                }
+            }
+            ArrayList<Entry> entries = new ArrayList<Entry>(heap);
+            Collections.sort(entries, outputOrder);
+            for (Entry e : entries) {
+                top.add(e.t);
+            }
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        child.close();
+        top = null;
+        it = null;
+        super.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child = children[0];
+    }
+
+}
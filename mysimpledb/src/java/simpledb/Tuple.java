@@ -41,13 +41,25 @@ public class Tuple implements Serializable {
         		fieldlist[i] = new IntField(-1);
         	}
         	else {
-        		fieldlist[i] = new StringField(null, td.getFieldType(i).getLen());
+        		fieldlist[i] = new StringField(null, Type.STRING_LEN);
         	}
         	i++;
         	it.next();
         }
     }
 
+    /**
+     * Create a new tuple with the specified schema that holds the given
+     * fields. The array is not copied.
+     *
+     * @param td     the schema of this tuple
+     * @param fields a field for each of td's fields
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.td = td;
+        this.fieldlist = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -85,7 +97,7 @@ public class Tuple implements Serializable {
     	}
     	else if (f.getType().equals(Type.STRING_TYPE) && fieldlist[i].getType().equals(Type.STRING_TYPE)){
     		StringField myf = (StringField)f;
-    		fieldlist[i] = new StringField(myf.getValue(), myf.getType().getLen());
+    		fieldlist[i] = new StringField(myf.getValue(), Type.STRING_LEN);
     	}
     	else throw new RuntimeException();
     }
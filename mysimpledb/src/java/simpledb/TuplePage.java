@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * The operations {@link HeapFile} needs from the pages of a file, whatever
+ * their format: {@link HeapPage} stores fixed-size tuples in slots marked in
+ * a bitmap header, {@link SlottedPage} stores variable-length tuples
+ * through a slot directory, and {@link PaxPage} stores fixed-size tuples
+ * field by field.
+ */
+interface TuplePage extends Page {
+
+    /**
+     * @return whether the page has room for any tuple of its table. This is
+     * what the file's {@link FreeSpaceMap} records for the page.
+     */
+    boolean hasRoom();
+
+    /**
+     * Adds the specified tuple to the page, updating its RecordId.
+     *
+     * @throws DbException if the page doesn't have room for the tuple or the
+     *                     tuple's TupleDesc doesn't match
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page, clearing its RecordId.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @param p a predicate, or null
+     * @return an iterator over the tuples on the page that satisfy p, or
+     * over all of them if p is null
+     */
+    Iterator<Tuple> iterator(Predicate p);
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateTest extends SimpleDbTestBase {
+
+    private static final Aggregator.Op[] OPS = {Aggregator.Op.MIN,
+            Aggregator.Op.MAX, Aggregator.Op.SUM, Aggregator.Op.COUNT,
+            Aggregator.Op.AVG};
+
+    /**
+     * @return a two column relation with keys (i * step) % mod and payload
+     * i % 1000
+     */
+    private static DbIterator relation(int n, int step, int mod) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (int) ((i * (long) step) % mod);
+            data[2 * i + 1] = i % 1000;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the result of the aggregate computed by an aggregator alone
+     */
+    private static ArrayList<String> expected(DbIterator child, Aggregator.Op op)
+            throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+        child.open();
+        while (child.hasNext()) {
+            agg.mergeTupleIntoGroup(child.next());
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        return drain(it);
+    }
+
+    private void checkAggregate(int n, int step, int mod, int memoryPages,
+                                boolean spills) throws Exception {
+        for (Aggregator.Op op : OPS) {
+            Aggregate agg = new Aggregate(relation(n, step, mod), 1, 0, op,
+                    memoryPages);
+            agg.open();
+            ArrayList<String> actual = drain(agg);
+            assertEquals(spills, agg.hasSpilled());
+            ArrayList<String> expected = expected(relation(n, step, mod), op);
+            assertEquals(expected, actual);
+            agg.rewind();
+            assertEquals(expected, drain(agg));
+            agg.close();
+        }
+    }
+
+    /**
+     * Groups that fit in the budget are aggregated without spilling
+     */
+    @Test
+    public void inMemory() throws Exception {
+        checkAggregate(5000, 7, 100, Aggregate.DEFAULT_MEMORY_PAGES, false);
+    }
+
+    /**
+     * More groups than the budget are merged from partial aggregates on disk
+     */
+    @Test
+    public void spill() throws Exception {
+        checkAggregate(6000, 7, 3000, 1, true);
+    }
+
+    /**
+     * Partitions with more groups than the budget are split again
+     */
+    @Test
+    public void repartition() throws Exception {
+        int groupsPerPage = BufferPool.getPageSize() / Utility.getTupleDesc(2).getSize();
+        int groups = groupsPerPage * Aggregate.NUM_PARTITIONS * 2;
+        checkAggregate(groups * 2, 7, groups, 1, true);
+    }
+
+    /**
+     * COUNT over a string field, grouped by an int field, is merged with SUM
+     */
+    @Test
+    public void stringCount() throws Exception {
+        int n = 3000;
+        Object[] data = new Object[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = i % 1500;
+            data[2 * i + 1] = "s" + i;
+        }
+        Aggregate agg = new Aggregate(TestUtil.createTupleList(2, data), 1, 0,
+                Aggregator.Op.COUNT, 1);
+        agg.open();
+        int groups = 0;
+        while (agg.hasNext()) {
+            assertEquals(2, ((IntField) agg.next().getField(1)).getValue());
+            groups++;
+        }
+        assertTrue(agg.hasSpilled());
+        assertEquals(1500, groups);
+        agg.close();
+    }
+
+    /**
+     * Several aggregates over two group-by fields give the same results as
+     * computing each aggregate on its own, in memory and when spilling
+     */
+    @Test
+    public void multipleAggregates() throws Exception {
+        int n = 6000;
+        int[] data = new int[3 * n];
+        for (int i = 0; i < n; i++) {
+            data[3 * i] = i % 50;
+            data[3 * i + 1] = (i * 7) % 60;
+            data[3 * i + 2] = i % 1000;
+        }
+        for (int memoryPages : new int[]{Aggregate.DEFAULT_MEMORY_PAGES, 1}) {
+            Aggregate agg = new Aggregate(TestUtil.createTupleList(3, data),
+                    new int[]{2, 2, 2, 2, 2}, new int[]{0, 1}, OPS, memoryPages);
+            assertEquals(7, agg.getTupleDesc().numFields());
+            assertEquals(OPS.length, agg.numAggregates());
+            agg.open();
+            ArrayList<String> actual = drain(agg);
+            assertEquals(memoryPages == 1, agg.hasSpilled());
+            agg.close();
+
+            // the expected rows, built from one single-column-key aggregate per op
+            ArrayList<ArrayList<String>> perOp = new ArrayList<ArrayList<String>>();
+            int[] keyed = new int[2 * n];
+            for (int i = 0; i < n; i++) {
+                keyed[2 * i] = data[3 * i] * 1000 + data[3 * i + 1];
+                keyed[2 * i + 1] = data[3 * i + 2];
+            }
+            for (Aggregator.Op op : OPS) {
+                perOp.add(expected(TestUtil.createTupleList(2, keyed), op));
+            }
+            ArrayList<String> expected = new ArrayList<String>();
+            for (int r = 0; r < perOp.get(0).size(); r++) {
+                int k = Integer.parseInt(perOp.get(0).get(r).split(" ")[0]);
+                String row = (k / 1000) + " " + (k % 1000) + " ";
+                for (ArrayList<String> rows : perOp) {
+                    row += rows.get(r).split(" ")[1] + " ";
+                }
+                expected.add(row);
+            }
+            Collections.sort(expected);
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Reopening an aggregate computes it again rather than adding to the old
+     * groups
+     */
+    @Test
+    public void reopen() throws Exception {
+        Aggregate agg = new Aggregate(relation(100, 1, 10), 1, 0,
+                Aggregator.Op.COUNT);
+        agg.open();
+        ArrayList<String> first = drain(agg);
+        agg.close();
+        agg.open();
+        assertEquals(first, drain(agg));
+        assertFalse(agg.hasNext());
+        agg.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregateTest.class);
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregatorTest extends SimpleDbTestBase {
+
+    private static DbIterator intGroups() {
+        return TestUtil.createTupleList(2,
+                new int[]{1, 2,
+                        1, 4,
+                        3, 5,
+                        -7, 6,
+                        1, 6,
+                        3, 1});
+    }
+
+    private static DbIterator stringGroups() {
+        return TestUtil.createTupleList(2,
+                new Object[]{"a", 2,
+                        "a", 4,
+                        "b", 5,
+                        "c", 6,
+                        "a", 6,
+                        "b", 1});
+    }
+
+    private static void mergeAll(Aggregator agg, DbIterator child) throws Exception {
+        child.rewind();
+        while (child.hasNext()) {
+            agg.mergeTupleIntoGroup(child.next());
+        }
+    }
+
+    private static void check(Aggregator agg, DbIterator expected) throws Exception {
+        DbIterator actual = agg.iterator();
+        actual.open();
+        int n = 0;
+        while (actual.hasNext()) {
+            actual.next();
+            n++;
+        }
+        expected.rewind();
+        int m = 0;
+        while (expected.hasNext()) {
+            expected.next();
+            m++;
+        }
+        assertEquals(m, n);
+        expected.rewind();
+        TestUtil.matchAllTuples(expected, actual);
+    }
+
+    /**
+     * Unit test for IntegerAggregator grouped by an int field
+     */
+    @Test
+    public void intGroupedAggregates() throws Exception {
+        Object[][] cases = {
+                {Aggregator.Op.SUM, new int[]{1, 12, 3, 6, -7, 6}},
+                {Aggregator.Op.MIN, new int[]{1, 2, 3, 1, -7, 6}},
+                {Aggregator.Op.MAX, new int[]{1, 6, 3, 5, -7, 6}},
+                {Aggregator.Op.COUNT, new int[]{1, 3, 3, 2, -7, 1}},
+                {Aggregator.Op.AVG, new int[]{1, 4, 3, 3, -7, 6}},
+        };
+        for (Object[] c : cases) {
+            IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1,
+                    (Aggregator.Op) c[0]);
+            mergeAll(agg, intGroups());
+            check(agg, TestUtil.createTupleList(2, (int[]) c[1]));
+        }
+    }
+
+    /**
+     * Unit test for IntegerAggregator computing and merging partial averages
+     */
+    @Test
+    public void sumCount() throws Exception {
+        IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1,
+                Aggregator.Op.SUM_COUNT);
+        mergeAll(partial, intGroups());
+        check(partial, TestUtil.createTupleList(3,
+                new int[]{1, 12, 3, 3, 6, 2, -7, 6, 1}));
+
+        IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1,
+                Aggregator.Op.SC_AVG);
+        mergeAll(avg, partial.iterator());
+        check(avg, TestUtil.createTupleList(2, new int[]{1, 4, 3, 3, -7, 6}));
+    }
+
+    /**
+     * Unit test for IntegerAggregator grouped by a string field, and without
+     * grouping
+     */
+    @Test
+    public void stringGroupsAndNoGrouping() throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(0, Type.STRING_TYPE, 1,
+                Aggregator.Op.SUM);
+        mergeAll(agg, stringGroups());
+        check(agg, TestUtil.createTupleList(2,
+                new Object[]{"a", 12, "b", 6, "c", 6}));
+
+        agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1,
+                Aggregator.Op.MAX);
+        mergeAll(agg, intGroups());
+        check(agg, TestUtil.createTupleList(1, new int[]{6}));
+    }
+
+    /**
+     * Unit test for StringAggregator grouped by string and int fields
+     */
+    @Test
+    public void stringAggregator() throws Exception {
+        StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 0,
+                Aggregator.Op.COUNT);
+        mergeAll(agg, stringGroups());
+        check(agg, TestUtil.createTupleList(2,
+                new Object[]{"a", 3, "b", 2, "c", 1}));
+
+        DbIterator byInt = TestUtil.createTupleList(2,
+                new Object[]{1, "x", 2, "y", 1, "z"});
+        agg = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+        mergeAll(agg, byInt);
+        check(agg, TestUtil.createTupleList(2, new int[]{1, 2, 2, 1}));
+    }
+
+    /**
+     * Unit test for MultiAggregator with several aggregates over a composite
+     * int and string key
+     */
+    @Test
+    public void multiAggregator() throws Exception {
+        DbIterator child = TestUtil.createTupleList(3,
+                new Object[]{1, "a", 2,
+                        1, "b", 4,
+                        1, "a", 6,
+                        2, "a", 5,
+                        2, "a", 1});
+        MultiAggregator agg = new MultiAggregator(child.getTupleDesc(),
+                new int[]{0, 1}, new int[]{2, 2, 2, 1},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.MIN,
+                        Aggregator.Op.AVG, Aggregator.Op.COUNT});
+        mergeAll(agg, child);
+        assertEquals(3, agg.numGroups());
+        check(agg, TestUtil.createTupleList(6,
+                new Object[]{1, "a", 8, 2, 4, 2,
+                        1, "b", 4, 4, 4, 1,
+                        2, "a", 6, 1, 3, 2}));
+
+        agg = new MultiAggregator(child.getTupleDesc(), new int[0],
+                new int[]{2, 0}, new Aggregator.Op[]{Aggregator.Op.MAX,
+                Aggregator.Op.SUM_COUNT});
+        mergeAll(agg, child);
+        check(agg, TestUtil.createTupleList(3, new int[]{6, 7, 5}));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregatorTest.class);
+    }
+}
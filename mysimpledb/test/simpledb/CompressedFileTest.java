@@ -0,0 +1,241 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[]{"id", "genre", "year"});
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String genre, int year) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(genre, Type.STRING_LEN));
+        t.setField(2, new IntField(year));
+        return t;
+    }
+
+    private CompressedFile createEmpty() throws IOException {
+        File f = File.createTempFile("compressed", ".dat");
+        f.delete();
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        CompressedFile cf = new CompressedFile(f, td);
+        Database.getCatalog().addTable(cf);
+        return cf;
+    }
+
+    private List<String> scan(DbFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    private byte[] roundTrip(HeapPage page) {
+        byte[] data = page.getPageData();
+        byte[] compressed = PageCompressor.compress(data, td, data.length);
+        byte[] back = PageCompressor.decompress(ByteBuffer.wrap(compressed), td, data.length);
+        assertArrayEquals(data, back);
+        return compressed;
+    }
+
+    /**
+     * Unit test for PageCompressor: repetitive pages shrink several times,
+     * a page of random values hardly at all, and all decompress to the same
+     * page
+     */
+    @Test
+    public void compressPage() throws Exception {
+        HeapPageId pid = new HeapPageId(createEmpty().getId(), 0);
+        String[] genres = {"Drama", "Comedy", "Documentary"};
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            page.insertTuple(tuple(1000 + i, genres[i / 10 % 3], 1990 + i % 20));
+        }
+        assertTrue(roundTrip(page).length * 8 < page.getPageData().length);
+
+        Random rand = new Random(0);
+        page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+            char[] s = new char[Type.STRING_LEN];
+            for (int k = 0; k < s.length; k++) {
+                s[k] = (char) (' ' + rand.nextInt(90));
+            }
+            page.insertTuple(tuple(rand.nextInt(), new String(s), rand.nextInt()));
+        }
+        int length = roundTrip(page).length;
+        assertTrue(length > page.getPageData().length * 9 / 10);
+        assertTrue(length <= page.getPageData().length + 1);
+
+        // a half-empty page
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 2 == 0) {
+                page.deleteTuple(t);
+            }
+        }
+        roundTrip(page);
+    }
+
+    /**
+     * Unit test for CompressedFile: inserted tuples read back after the file
+     * is flushed and reopened, including from pages that outgrew their
+     * records and were moved to the end of the file
+     */
+    @Test
+    public void insertAndReopen() throws Exception {
+        CompressedFile cf = createEmpty();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = tuple(i, "Drama", 2000);
+            expected.add(t.toString());
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        long length = cf.getFile().length();
+        assertTrue(length < cf.numPages() * BufferPool.getPageSize() / 4);
+
+        // values that don't compress make every page outgrow its record
+        tid = new TransactionId();
+        Random rand = new Random(0);
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        List<Tuple> all = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            all.add(it.next());
+        }
+        it.close();
+        expected.clear();
+        for (Tuple t : all) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            Tuple u = tuple(rand.nextInt(), "genre " + rand.nextInt(), rand.nextInt());
+            Database.getBufferPool().insertTuple(tid, cf.getId(), u);
+            expected.add(u.toString());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(cf.getFile().length() > length);
+
+        tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedFile reopened = new CompressedFile(cf.getFile(), td);
+        Database.getCatalog().addTable(reopened, "reopened");
+        assertEquals(cf.numPages(), reopened.numPages());
+        List<String> actual = scan(reopened);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for CompressedFile.convert() and for choosing the compressed
+     * format in the catalog file
+     */
+    @Test
+    public void convertAndLoadSchema() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File text = new File(dir, "movies.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 500; i++) {
+            w.println(i + ",genre" + (i % 7) + "," + (1950 + i % 60));
+        }
+        w.close();
+        File heap = new File(dir, "heap.dat");
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 3,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "heap");
+
+        File compressed = new File(dir, "movies.dat");
+        assertEquals(hf.numPages(), CompressedFile.convert(heap, td, compressed,
+                BufferPool.getPageSize()));
+        assertTrue(compressed.length() * 8 < heap.length());
+
+        File catalog = new File(dir, "catalog.txt");
+        w = new PrintWriter(new FileWriter(catalog));
+        w.println("movies (id int, genre string, year int) compressed");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("movies"));
+        assertTrue(f instanceof CompressedFile);
+        assertEquals(scan(hf), scan(f));
+
+        for (File file : dir.listFiles()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Unit test for CompressedFile.readPageAsync() and writePageAsync(),
+     * including a page that outgrows its record
+     */
+    @Test
+    public void asyncReadAndWrite() throws Exception {
+        CompressedFile cf = createEmpty();
+        HeapPageId pid = new HeapPageId(cf.getId(), 0);
+        assertEquals(0, cf.allocatePage());
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 20; i++) {
+            page.insertTuple(tuple(i, "Drama", 2000));
+        }
+        assertSame(page, cf.writePageAsync(page).get());
+        long length = cf.getFile().length();
+        assertArrayEquals(page.getPageData(), cf.readPageAsync(pid).get().getPageData());
+
+        Random rand = new Random(0);
+        while (page.getNumEmptySlots() > 0) {
+            page.insertTuple(tuple(rand.nextInt(), "genre " + rand.nextInt(), rand.nextInt()));
+        }
+        cf.writePageAsync(page).get();
+        assertTrue(cf.getFile().length() > length);
+        assertArrayEquals(page.getPageData(), cf.readPageAsync(pid).get().getPageData());
+        CompressedFile reopened = new CompressedFile(cf.getFile(), td);
+        assertEquals(1, reopened.numPages());
+        assertArrayEquals(page.getPageData(), reopened.readPage(pid).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedFileTest.class);
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DistinctTest extends SimpleDbTestBase {
+
+    /**
+     * @return a two column relation of n tuples (i % mod, (i % mod) * 3), so
+     * that it has mod distinct tuples
+     */
+    private static int[] data(int n, int mod) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (int) ((i * 7L) % mod);
+            data[2 * i + 1] = data[2 * i] * 3;
+        }
+        return data;
+    }
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Checks that op returns each distinct tuple of data exactly once, and
+     * the same again after a rewind.
+     */
+    private static void checkDistinct(Distinct op, int[] data) throws Exception {
+        TreeSet<String> expected = new TreeSet<String>();
+        for (int i = 0; i < data.length; i += 2) {
+            expected.add(data[i] + " " + data[i + 1] + " ");
+        }
+        op.open();
+        for (int pass = 0; pass < 2; pass++) {
+            ArrayList<String> actual = drain(op);
+            assertEquals(expected.size(), actual.size());
+            Collections.sort(actual);
+            assertEquals(new ArrayList<String>(expected), actual);
+            op.rewind();
+        }
+        op.close();
+    }
+
+    /**
+     * Distinct tuples that fit in memory are returned in the order they are
+     * first seen
+     */
+    @Test
+    public void inMemory() throws Exception {
+        Distinct op = new Distinct(TestUtil.createTupleList(2,
+                new int[]{1, 2, 3, 4, 1, 2, 1, 3, 3, 4, 5, 6}));
+        assertFalse(op.isSortBased());
+        op.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+                new int[]{1, 2, 3, 4, 1, 3, 5, 6}), op);
+        assertFalse(op.hasSpilled());
+        op.close();
+
+        checkDistinct(new Distinct(TestUtil.createTupleList(2, data(5000, 300))),
+                data(5000, 300));
+    }
+
+    /**
+     * More distinct tuples than the budget are deduplicated from partitions
+     * on disk
+     */
+    @Test
+    public void spill() throws Exception {
+        int perPage = BufferPool.getPageSize() / Utility.getTupleDesc(2).getSize();
+        int[] data = data(perPage * 20, perPage * 10);
+        Distinct op = new Distinct(TestUtil.createTupleList(2, data), 1);
+        checkDistinct(op, data);
+
+        op.open();
+        drain(op);
+        assertTrue(op.hasSpilled());
+        op.close();
+    }
+
+    /**
+     * Distinct over a string field
+     */
+    @Test
+    public void strings() throws Exception {
+        Distinct op = new Distinct(TestUtil.createTupleList(2,
+                new Object[]{"a", 1, "b", 1, "a", 1, "a", 2, "b", 1}));
+        op.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(2,
+                new Object[]{"a", 1, "b", 1, "a", 2}), op);
+        op.close();
+    }
+
+    /**
+     * A sorted child is deduplicated one run of its sort field at a time
+     */
+    @Test
+    public void sortedChild() throws Exception {
+        int[] data = data(5000, 300);
+        Distinct op = new Distinct(new OrderBy(0, true,
+                TestUtil.createTupleList(2, data)), 1);
+        assertTrue(op.isSortBased());
+        checkDistinct(op, data);
+
+        op.open();
+        drain(op);
+        assertFalse(op.hasSpilled());
+        op.close();
+
+        // through a projection of the sort field
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(1);
+        fields.add(0);
+        Project p = new Project(fields, new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                new OrderBy(0, true, TestUtil.createTupleList(2, data)));
+        assertTrue(new Distinct(p).isSortBased());
+    }
+
+    /**
+     * A Distinct that keeps the order of its child, sorted in descending
+     * order on a field that is projected away, doesn't spill past its
+     * budget, and returns its tuples in that order
+     */
+    @Test
+    public void keepOrder() throws Exception {
+        int perPage = BufferPool.getPageSize() / Utility.getTupleDesc(2).getSize();
+        int[] data = data(perPage * 20, perPage * 10);
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(0);
+        Project p = new Project(fields, new Type[]{Type.INT_TYPE},
+                new OrderBy(1, false, TestUtil.createTupleList(2, data)));
+        Distinct op = new Distinct(p, 1);
+        op.open();
+        drain(op);
+        assertTrue(op.hasSpilled());
+        op.close();
+
+        op = new Distinct(p, 1, true);
+        assertFalse(op.isSortBased());
+        op.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = perPage * 10 - 1; i >= 0; i--) {
+                assertTrue(op.hasNext());
+                assertEquals(new IntField(i), op.next().getField(0));
+            }
+            assertFalse(op.hasNext());
+            op.rewind();
+        }
+        assertFalse(op.hasSpilled());
+        op.close();
+
+        // sorted in descending order on a field it returns
+        op = new Distinct(new OrderBy(0, false, TestUtil.createTupleList(2, data)), 1, true);
+        assertTrue(op.isSortBased());
+        op.open();
+        for (int i = perPage * 10 - 1; i >= 0; i--) {
+            assertEquals(new IntField(i), op.next().getField(0));
+        }
+        assertFalse(op.hasNext());
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DistinctTest.class);
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class FramePageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static List<String> tuples(Iterator<Tuple> it) {
+        List<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Unit test for FramePage: over a frame holding a HeapPage's bytes it
+     * has the same tuples, and inserts and deletes leave the same bytes as
+     * they do in a HeapPage
+     */
+    @Test
+    public void sameAsHeapPage() throws Exception {
+        HeapPage heap = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        FrameArena arena = new FrameArena(2, BufferPool.getPageSize());
+        int frameNo = arena.allocate();
+        ByteBuffer frame = arena.frame(frameNo);
+        heap.writePageData(frame.duplicate());
+        FramePage page = new FramePage(pid, frame, arena, frameNo);
+        assertTrue(page.inFrame());
+        assertEquals(heap.getNumEmptySlots(), page.getNumEmptySlots());
+        assertEquals(tuples(heap.iterator()), tuples(page.iterator()));
+
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        assertEquals(tuples(heap.iterator(p)), tuples(page.iterator(p)));
+
+        for (int i = 0; i < 5; i++) {
+            heap.insertTuple(Utility.getHeapTuple(i, 2));
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+        }
+        Tuple first = page.iterator().next();
+        heap.deleteTuple(heap.iterator().next());
+        page.deleteTuple(first);
+        assertNull(first.getRecordId().getPageId());
+        assertArrayEquals(heap.getPageData(), page.getPageData());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+
+        // the page keeps its contents when it leaves its frame
+        byte[] data = page.getPageData();
+        page.leaveFrame();
+        assertFalse(page.inFrame());
+        assertEquals(frameNo, arena.allocate());
+        arena.frame(frameNo).put(new byte[BufferPool.getPageSize()]);
+        assertArrayEquals(data, page.getPageData());
+        assertEquals(tuples(heap.iterator()), tuples(page.iterator()));
+    }
+
+    /**
+     * Unit test for an off-heap BufferPool: pages are kept in frames, which
+     * are reused as pages are evicted, and a page that was evicted while it
+     * was held still reads the same
+     */
+    @Test
+    public void offHeapPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 10, 1000, null, tuples);
+        HeapFile table = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        BufferPool pool = Database.resetBufferPool(4, true);
+        assertTrue(pool.isOffHeap());
+
+        HeapPageId first = new HeapPageId(table.getId(), 0);
+        Page held = pool.getPage(tid, first, Permissions.READ_ONLY);
+        assertTrue(held instanceof FramePage);
+        assertTrue(((FramePage) held).inFrame());
+        List<String> before = tuples(((FramePage) held).iterator());
+        Database.getBufferPool().transactionComplete(tid);
+
+        SystemTestUtil.matchTuples(table, tuples);
+        assertFalse(((FramePage) held).inFrame());
+        assertEquals(before, tuples(((FramePage) held).iterator()));
+
+        // changes to pages in frames are written out and read back
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-5, 2);
+        pool.insertTuple(tid, table.getId(), t);
+        Tuple victim = ((FramePage) pool.getPage(tid, first, Permissions.READ_ONLY))
+                .iterator().next();
+        pool.deleteTuple(tid, victim);
+        pool.transactionComplete(tid);
+        pool.flushAllPages();
+        tuples.add(new ArrayList<Integer>(Arrays.asList(-5, -5)));
+        tuples.remove(new ArrayList<Integer>(Arrays.asList(
+                ((IntField) victim.getField(0)).getValue(),
+                ((IntField) victim.getField(1)).getValue())));
+        Database.resetBufferPool(4, true);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /**
+     * Unit test for configuring the BufferPool the Database creates with
+     * system properties
+     */
+    @Test
+    public void configuredPool() throws Exception {
+        assertFalse(Database.getBufferPool().isOffHeap());
+        System.setProperty(Database.POOL_PAGES_PROPERTY, "7");
+        System.setProperty(Database.OFF_HEAP_PROPERTY, "true");
+        try {
+            Database.reset();
+            assertTrue(Database.getBufferPool().isOffHeap());
+            assertEquals(7, Database.getBufferPool().numPages());
+        } finally {
+            System.clearProperty(Database.POOL_PAGES_PROPERTY);
+            System.clearProperty(Database.OFF_HEAP_PROPERTY);
+            Database.reset();
+        }
+        assertFalse(Database.getBufferPool().isOffHeap());
+        assertEquals(BufferPool.DEFAULT_PAGES, Database.getBufferPool().numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FramePageTest.class);
+    }
+}
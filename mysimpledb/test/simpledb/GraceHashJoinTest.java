@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GraceHashJoinTest extends SimpleDbTestBase {
+
+    /**
+     * @return a two column relation with keys (i * step) % mod and payload i
+     */
+    private static DbIterator relation(int n, int step, int mod) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (i * step) % mod;
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /**
+     * @return the tuples of the iterator as sorted strings, so that joins
+     * returning their results in different orders can be compared
+     */
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    private static ArrayList<String> expected(DbIterator left, DbIterator right)
+            throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, left, right);
+        op.open();
+        ArrayList<String> result = drain(op);
+        op.close();
+        return result;
+    }
+
+    /**
+     * A build side that fits in the budget is joined without spilling
+     */
+    @Test
+    public void inMemory() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        GraceHashJoin op = new GraceHashJoin(pred, relation(500, 3, 100),
+                relation(200, 1, 100));
+        op.open();
+        assertFalse(op.hasSpilled());
+        assertEquals(expected(relation(500, 3, 100), relation(200, 1, 100)),
+                drain(op));
+        op.close();
+    }
+
+    /**
+     * A build side larger than the budget is partitioned to disk, and
+     * rewind() replays the partitions
+     */
+    @Test
+    public void spill() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        GraceHashJoin op = new GraceHashJoin(pred, relation(3000, 7, 2500),
+                relation(2000, 1, 2500), 1);
+        op.open();
+        assertTrue(op.hasSpilled());
+        ArrayList<String> expected = expected(relation(3000, 7, 2500),
+                relation(2000, 1, 2500));
+        assertEquals(expected, drain(op));
+        op.rewind();
+        assertEquals(expected, drain(op));
+        op.close();
+    }
+
+    /**
+     * A partition that can't be split further (one key) is still joined
+     */
+    @Test
+    public void skewedSpill() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        GraceHashJoin op = new GraceHashJoin(pred, relation(10, 1, 2),
+                relation(1000, 1, 1), 1);
+        op.open();
+        assertTrue(op.hasSpilled());
+        ArrayList<String> actual = drain(op);
+        assertEquals(5 * 1000, actual.size());
+        assertEquals(expected(relation(10, 1, 2), relation(1000, 1, 1)), actual);
+        op.close();
+    }
+
+    /**
+     * GraceHashJoin only handles equality predicates
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonEquality() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        new GraceHashJoin(pred, relation(1, 1, 1), relation(1, 1, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GraceHashJoinTest.class);
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before
+    public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[]{1, 2,
+                        3, 4,
+                        5, 6,
+                        7, 8});
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[]{1, 2, 3,
+                        2, 3, 4,
+                        3, 4, 5,
+                        4, 5, 6,
+                        5, 6, 7,
+                        3, 9, 9});
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[]{1, 2, 1, 2, 3,
+                        3, 4, 3, 4, 5,
+                        3, 4, 3, 9, 9,
+                        5, 6, 5, 6, 7});
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getTupleDesc()
+     */
+    @Test
+    public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        TupleDesc actual = op.getTupleDesc();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for HashEquiJoin.rewind()
+     */
+    @Test
+    public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getNext() on an integer join field, with
+     * duplicate keys on the build side
+     */
+    @Test
+    public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+    }
+
+    /**
+     * Unit test for HashEquiJoin.getNext() on a string join field
+     */
+    @Test
+    public void stringJoin() throws Exception {
+        DbIterator left = TestUtil.createTupleList(2,
+                new Object[]{"a", 1, "b", 2, "c", 3});
+        DbIterator right = TestUtil.createTupleList(2,
+                new Object[]{"b", 20, "c", 30, "c", 31, "d", 40});
+        DbIterator expected = TestUtil.createTupleList(4,
+                new Object[]{"b", 2, "b", 20,
+                        "c", 3, "c", 30,
+                        "c", 3, "c", 31});
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin op = new HashEquiJoin(pred, left, right);
+        op.open();
+        TestUtil.matchAllTuples(expected, op);
+    }
+
+    /**
+     * HashEquiJoin only handles equality predicates
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonEquality() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        new HashEquiJoin(pred, scan1, scan2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
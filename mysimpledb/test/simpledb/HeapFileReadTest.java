@@ -3,7 +3,10 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.After;
 import org.junit.Before;
@@ -80,6 +83,102 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping, including
+     * a page appended after the file was mapped
+     */
+    @Test
+    public void readMappedPage() throws Exception {
+        assertTrue(hf.isMemoryMapped());
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] mapped = hf.readPage(pid).getPageData();
+        hf.setMemoryMapped(false);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped);
+        hf.setMemoryMapped(true);
+
+        HeapPageId next = new HeapPageId(hf.getId(), 1);
+        HeapPage page = new HeapPage(next, HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        hf.writePage(page);
+        assertEquals(2, hf.numPages());
+        HeapPage read = (HeapPage) hf.readPage(next);
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        assertTrue(read.isSlotUsed(0));
+    }
+
+    /**
+     * Unit test for HeapFile.close(): the Catalog closes the file's channel,
+     * and the file reopens it when it is used again
+     */
+    @Test
+    public void closeAndReopen() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] before = hf.readPage(pid).getPageData();
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf);
+        for (boolean mapped : new boolean[]{true, false}) {
+            hf.setMemoryMapped(mapped);
+            assertArrayEquals(before, hf.readPage(pid).getPageData());
+            hf.close();
+        }
+        hf.writePage(hf.readPage(pid));
+        assertArrayEquals(before, hf.readPage(pid).getPageData());
+    }
+
+    /**
+     * Unit test for a HeapFile with its own page size: pages hold as many
+     * tuples as fit in that size, and read and write back whole
+     */
+    @Test
+    public void pageSize() throws Exception {
+        int pageSize = 4 * BufferPool.getPageSize();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 3000, 100, null, tuples);
+        HeapFileEncoder.convert(tuples, f, pageSize, 2);
+        HeapFile big = new HeapFile(f, td, pageSize);
+        Database.getCatalog().addTable(big);
+        assertEquals(pageSize, Database.getCatalog().getPageSize(big.getId()));
+
+        int perPage = (pageSize * 8) / (td.getSize() * 8 + 1);
+        assertEquals((3000 + perPage - 1) / perPage, big.numPages());
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        HeapPage page = (HeapPage) big.readPage(pid);
+        assertEquals(0, page.getNumEmptySlots());
+        assertEquals(pageSize, page.getPageData().length);
+        big.writePage(page);
+        assertEquals(big.numPages() * (long) pageSize, f.length());
+        SystemTestUtil.matchTuples(big, tuples);
+    }
+
+    /**
+     * Unit test for the convert command with a page size, for a table
+     * declared with pagesize=N in the catalog
+     */
+    @Test
+    public void convertPageSize() throws Exception {
+        int pageSize = 2 * BufferPool.getPageSize();
+        File text = File.createTempFile("convert", ".txt");
+        text.deleteOnExit();
+        File dat = new File(text.getPath().replaceAll(".txt", ".dat"));
+        dat.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        PrintWriter w = new PrintWriter(text);
+        for (int i = 0; i < 2000; i++) {
+            w.println(i + "," + (i * 2));
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i * 2)));
+        }
+        w.close();
+        SimpleDb.main(new String[]{"convert", text.getPath(), "2", "int,int", ",", "heap",
+                Integer.toString(pageSize)});
+
+        HeapFile converted = new HeapFile(dat, td, pageSize);
+        Database.getCatalog().addTable(converted);
+        int perPage = (pageSize * 8) / (td.getSize() * 8 + 1);
+        assertEquals((2000 + perPage - 1) / perPage, converted.numPages());
+        assertEquals(converted.numPages() * (long) pageSize, dat.length());
+        SystemTestUtil.matchTuples(converted, tuples);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -123,6 +222,107 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Unit test for read-ahead in HeapFile's iterator: a scan reads each page
+     * once, partly on the read-ahead thread, and stops prefetching when it is
+     * closed
+     */
+    @Test
+    public void readAhead() throws Exception {
+        class CountingHeapFile extends HeapFile {
+            int reads, prefetched;
+
+            public CountingHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) {
+                synchronized (this) {
+                    reads++;
+                    if (Thread.currentThread().getName().equals("simpledb-read-ahead")) {
+                        prefetched++;
+                    }
+                }
+                return super.readPage(pid);
+            }
+        }
+
+        final int PAGES = 20;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        CountingHeapFile table = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        assertTrue(table.isReadAhead());
+
+        SystemTestUtil.matchTuples(table, tuples);
+        synchronized (table) {
+            assertEquals(PAGES, table.reads);
+            assertTrue(table.prefetched > 0);
+        }
+
+        // before anything is measured a scan reads two pages ahead, and no
+        // more once it is closed
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.reads = 0;
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        it.next();
+        it.close();
+        Thread.sleep(200);
+        synchronized (table) {
+            assertTrue(table.reads <= 3);
+        }
+
+        // without read-ahead the scan reads every page itself
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.setReadAhead(false);
+        table.reads = 0;
+        table.prefetched = 0;
+        SystemTestUtil.matchTuples(table, tuples);
+        synchronized (table) {
+            assertEquals(PAGES, table.reads);
+            assertEquals(0, table.prefetched);
+        }
+    }
+
+    /**
+     * Unit test for HeapFile.readPageAsync() and BufferPool.getPages(): reads
+     * that are outstanding together return the pages readPage does, and a
+     * scan without memory mapping prefetches through them
+     */
+    @Test
+    public void readPageAsync() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        assertEquals(3, f.numPages());
+        List<HeapPageId> pids = new ArrayList<HeapPageId>();
+        List<CompletableFuture<Page>> reads = new ArrayList<CompletableFuture<Page>>();
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            HeapPageId pid = new HeapPageId(f.getId(), pgNo);
+            pids.add(pid);
+            reads.add(f.readPageAsync(pid));
+        }
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            Page page = reads.get(pgNo).get();
+            assertEquals(pids.get(pgNo), page.getId());
+            assertArrayEquals(f.readPage(pids.get(pgNo)).getPageData(), page.getPageData());
+        }
+
+        List<Page> pages = Database.getBufferPool().getPages(tid, pids, Permissions.READ_ONLY);
+        for (int pgNo = 0; pgNo < 3; pgNo++) {
+            assertSame(pages.get(pgNo), Database.getBufferPool().getPage(tid, pids.get(pgNo),
+                    Permissions.READ_ONLY));
+            assertArrayEquals(f.readPage(pids.get(pgNo)).getPageData(),
+                    pages.get(pgNo).getPageData());
+        }
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.setMemoryMapped(false);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,5 +1,9 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +49,111 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free space map: full pages are recorded, the map is
+     * saved when the file is closed, and a freed slot is found again
+     */
+    @Test
+    public void freeSpaceMap() throws Exception {
+        Tuple onPage1 = null;
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 600) {
+                onPage1 = t;
+            }
+        }
+        assertEquals(3, empty.numPages());
+
+        empty.close();
+        FreeSpaceMap saved = new FreeSpaceMap(empty.getFile());
+        assertEquals(2, saved.findPage(0, 3));
+        saved.getFile().delete();
+
+        assertEquals(1, onPage1.getRecordId().getPageId().pageNumber());
+        empty.deleteTuple(tid, onPage1);
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().pageNumber());
+        assertEquals(600 - 504, t.getRecordId().tupleno());
+    }
+
+    /**
+     * Unit test for the free space map and aborts: a page an aborted insert
+     * filled is used again by the next insert, rather than growing the file
+     */
+    @Test
+    public void freeSpaceAfterAbort() throws Exception {
+        for (int i = 0; i < 503; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, empty.getId(),
+                Utility.getHeapTuple(503, 2));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(504, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * Unit test for file growth: new pages come from a preallocated extent and
+     * stay in the BufferPool until flushed, and a reopened file doesn't count
+     * the spare pages of the extent
+     */
+    @Test
+    public void extents() throws Exception {
+        for (int i = 0; i < 505; ++i) {
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        int pageSize = BufferPool.getPageSize();
+        long length = empty.getFile().length();
+        assertTrue(length >= (1 + HeapFile.EXTENT_PAGES) * (long) pageSize);
+
+        HeapPageId second = new HeapPageId(empty.getId(), 1);
+        assertFalse(((HeapPage) empty.readPage(second)).iterator().hasNext());
+        Database.getBufferPool().flushAllPages();
+        assertTrue(((HeapPage) empty.readPage(second)).iterator().hasNext());
+        assertEquals(length, empty.getFile().length());
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.writePageAsync(): writes that are outstanding
+     * together all reach the file
+     */
+    @Test
+    public void writePageAsync() throws Exception {
+        List<CompletableFuture<Page>> writes = new ArrayList<CompletableFuture<Page>>();
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            HeapPage page = new HeapPage(new HeapPageId(empty.getId(), pgNo),
+                    HeapPage.createEmptyPageData());
+            page.insertTuple(Utility.getHeapTuple(pgNo, 2));
+            writes.add(empty.writePageAsync(page));
+        }
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            assertEquals(pgNo, writes.get(pgNo).get().getId().pageNumber());
+        }
+        assertEquals(4, empty.numPages());
+        for (int pgNo = 0; pgNo < 4; pgNo++) {
+            HeapPageId pid = new HeapPageId(empty.getId(), pgNo);
+            HeapPage page = (HeapPage) empty.readPage(pid);
+            assertEquals(new IntField(pgNo), page.iterator().next().getField(0));
+            assertArrayEquals(page.getPageData(), empty.readPageAsync(pid).get().getPageData());
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -105,6 +105,51 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate), and for writing out a page
+     * whose tuples were never decoded
+     */
+    @Test
+    public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Iterator<Tuple> it = page.iterator(p);
+        int count = 0;
+        for (int[] tuple : EXAMPLE_VALUES) {
+            if (tuple[0] > 30000) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(tuple[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(tuple[1], ((IntField) tup.getField(1)).getValue());
+                count++;
+            }
+        }
+        assertFalse(it.hasNext());
+        assertTrue(count > 0);
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        // the other ops, now with some of the tuples decoded
+        int operand = EXAMPLE_VALUES[0][1];
+        for (Predicate.Op op : Predicate.Op.values()) {
+            int expected = 0;
+            for (int[] tuple : EXAMPLE_VALUES) {
+                if (new IntField(tuple[1]).compare(op, new IntField(operand))) {
+                    expected++;
+                }
+            }
+            it = page.iterator(new Predicate(1, op, new IntField(operand)));
+            count = 0;
+            while (it.hasNext()) {
+                assertTrue(((IntField) it.next().getField(1)).compare(op,
+                        new IntField(operand)));
+                count++;
+            }
+            assertEquals(expected, count);
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,9 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -130,6 +134,59 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the image is the page as read
+     * until setBeforeImage() is called, and then the page as it was at that
+     * call, whatever changes follow
+     */
+    @Test
+    public void beforeImage() throws Exception {
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA;
+        HeapPage page = new HeapPage(pid, data);
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        assertArrayEquals(data, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] committed = page.getPageData();
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        assertArrayEquals(committed, page.getBeforeImage().getPageData());
+        assertEquals(483, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.writePageData(): it writes the same bytes as
+     * getPageData() at the buffer's position, for a page mixing decoded,
+     * undecoded, deleted and inserted tuples, and the page reads back intact
+     */
+    @Test
+    public void writePageData() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple second = it.next();
+        page.deleteTuple(second);
+        page.insertTuple(Utility.getHeapTuple(new int[]{-5, 1 << 20}));
+        page.insertTuple(Utility.getHeapTuple(new int[]{8, 9}));
+
+        byte[] expected = page.getPageData();
+        ByteBuffer buf = ByteBuffer.allocate(expected.length + 3);
+        buf.put(new byte[]{1, 2, 3});
+        page.writePageData(buf);
+        assertEquals(expected.length + 3, buf.position());
+        assertArrayEquals(expected, Arrays.copyOfRange(buf.array(), 3, buf.position()));
+
+        HeapPage read = new HeapPage(pid, expected);
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        Iterator<Tuple> orig = page.iterator(), copy = read.iterator();
+        while (orig.hasNext()) {
+            assertEquals(orig.next().toString(), copy.next().toString());
+        }
+        assertFalse(copy.hasNext());
+    }
+
     /**
      * JUnit suite target
      */
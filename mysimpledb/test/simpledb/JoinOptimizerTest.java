@@ -516,6 +516,98 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertEquals(result.get(result.size() - 1).t2Alias, "bigTable");
     }
 
+    /**
+     * Test that a range join is planned as a sort-merge join only when its
+     * right side, which a SortMergeJoin holds in memory, fits in memory, and
+     * as a block nested-loop join otherwise
+     */
+    @Test
+    public void rangeJoinAlgorithm() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        TransactionId tid = new TransactionId();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        // wide tuples, so that the table doesn't fit in memory
+        int width = 100;
+        int rows = GraceHashJoin.DEFAULT_MEMORY_PAGES * BufferPool.getPageSize()
+                / (width * Type.INT_TYPE.getLen()) + 100;
+        HeapFile big = SystemTestUtil.createRandomHeapFile(width, rows, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(small, "small");
+        Database.getCatalog().addTable(big, "big");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("small", new TableStats(small.getId(), 1));
+        stats.put("big", new TableStats(big.getId(), 1));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put("s", 1.0);
+        filterSelectivities.put("b", 1.0);
+
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM small s, big b WHERE s.c0 < b.c0;"),
+                new Vector<LogicalJoinNode>());
+        DbIterator join = j.instantiateJoin(
+                new LogicalJoinNode("s", "b", "c0", "c0", Predicate.Op.LESS_THAN),
+                new SeqScan(tid, small.getId(), "s"), new SeqScan(tid, big.getId(), "b"),
+                stats, filterSelectivities, false);
+        Assert.assertTrue(join instanceof Join);
+        join = j.instantiateJoin(
+                new LogicalJoinNode("b", "s", "c0", "c0", Predicate.Op.GREATER_THAN),
+                new SeqScan(tid, big.getId(), "b"), new SeqScan(tid, small.getId(), "s"),
+                stats, filterSelectivities, false);
+        Assert.assertTrue(join instanceof SortMergeJoin);
+    }
+
+    /**
+     * Test that instantiateJoin builds the operator that the cost model ranks
+     * cheaper for a range join, counting an input that is already sorted on
+     * its join field as not needing a sort
+     */
+    @Test
+    public void sortedRangeJoinAlgorithm() throws IOException, DbException,
+            TransactionAbortedException, ParsingException {
+        TransactionId tid = new TransactionId();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 100, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(small, "small");
+        Database.getCatalog().addTable(big, "big");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("small", new TableStats(small.getId(), 1));
+        stats.put("big", new TableStats(big.getId(), 1));
+        HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+        filterSelectivities.put("s", 0.05);
+        filterSelectivities.put("b", 1.0);
+
+        int card1 = stats.get("small").estimateTableCardinality(0.05);
+        int card2 = stats.get("big").estimateTableCardinality(1.0);
+        double cost1 = stats.get("small").estimateScanCost();
+        double cost2 = stats.get("big").estimateScanCost();
+        double loopCost = JoinOptimizer.estimateNestedLoopCost(card1, card2, cost1, cost2,
+                Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, small.getTupleDesc()));
+        // sorting the big side is what makes the sort-merge join dearer
+        Assert.assertTrue(loopCost < JoinOptimizer.estimateSortMergeJoinCost(
+                card1, card2, cost1, cost2, false, false));
+        Assert.assertTrue(loopCost > JoinOptimizer.estimateSortMergeJoinCost(
+                card1, card2, cost1, cost2, false, true));
+
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM small s, big b WHERE s.c0 < b.c0;"),
+                new Vector<LogicalJoinNode>());
+        LogicalJoinNode lj = new LogicalJoinNode("s", "b", "c0", "c0",
+                Predicate.Op.LESS_THAN);
+        Assert.assertTrue(j.estimateJoinCost(lj, card1, card2, cost1, cost2) == loopCost);
+        DbIterator join = j.instantiateJoin(lj, new SeqScan(tid, small.getId(), "s"),
+                new SeqScan(tid, big.getId(), "b"), stats, filterSelectivities, false);
+        Assert.assertTrue(join instanceof Join);
+        join = j.instantiateJoin(lj, new SeqScan(tid, small.getId(), "s"),
+                new OrderBy(0, true, new SeqScan(tid, big.getId(), "b")),
+                stats, filterSelectivities, false);
+        Assert.assertTrue(join instanceof SortMergeJoin);
+    }
+
     /**
      * Test a join ordering with an inequality, to make sure the inequality gets
      * put as the innermost join
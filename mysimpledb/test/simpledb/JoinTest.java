@@ -111,6 +111,44 @@ public class JoinTest extends SimpleDbTestBase {
         TestUtil.matchAllTuples(eqJoin, op);
     }
 
+    /**
+     * Unit test for Join.getNext() when the outer relation spans several
+     * blocks
+     */
+    @Test
+    public void multiBlockJoin() throws Exception {
+        int n = 2000;
+        int[] outer = new int[n * width1];
+        for (int i = 0; i < n; i++) {
+            outer[i * width1] = i % 10;
+        }
+        DbIterator bigScan = TestUtil.createTupleList(width1, outer);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        Join op = new Join(pred, bigScan, scan2, 1);
+        assertTrue(n > Join.blockTuples(1, bigScan.getTupleDesc()));
+        op.open();
+        // outer values 0..9 are each less than the inner values above them
+        int expected = 0;
+        for (int i = 0; i < n; i++) {
+            expected += Math.max(0, Math.min(5, 5 - i % 10));
+        }
+        int actual = 0;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            assertTrue(((IntField) t.getField(0)).getValue()
+                    < ((IntField) t.getField(width1)).getValue());
+            actual++;
+        }
+        assertEquals(expected, actual);
+        op.rewind();
+        int rewound = 0;
+        while (op.hasNext()) {
+            op.next();
+            rewound++;
+        }
+        assertEquals(expected, rewound);
+    }
+
     /**
      * JUnit suite target
      */
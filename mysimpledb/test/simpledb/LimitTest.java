@@ -0,0 +1,186 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    /**
+     * Counts the tuples pulled from its child, to check that Limit stops
+     * reading early.
+     */
+    private static class CountingIterator extends Operator {
+        private static final long serialVersionUID = 1L;
+        DbIterator child;
+        int pulled = 0;
+
+        CountingIterator(DbIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                return null;
+            }
+            pulled++;
+            return child.next();
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[]{child};
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+    }
+
+    private static DbIterator rows(int n) {
+        int[] data = new int[n];
+        for (int i = 0; i < n; i++) {
+            data[i] = i;
+        }
+        return TestUtil.createTupleList(1, data);
+    }
+
+    /**
+     * Unit test for Limit.getNext()
+     */
+    @Test
+    public void limitAndOffset() throws Exception {
+        CountingIterator child = new CountingIterator(rows(100));
+        Limit op = new Limit(5, 10, child);
+        op.open();
+        for (int i = 10; i < 15; i++) {
+            assertTrue(op.hasNext());
+            assertEquals(i, ((IntField) op.next().getField(0)).getValue());
+        }
+        assertFalse(op.hasNext());
+        assertEquals(15, child.pulled);
+
+        op.rewind();
+        assertEquals(10, ((IntField) op.next().getField(0)).getValue());
+    }
+
+    /**
+     * Unit test for Limit past the end of its child
+     */
+    @Test
+    public void shortChild() throws Exception {
+        Limit op = new Limit(10, 8, rows(12));
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        assertEquals(4, n);
+    }
+
+    /**
+     * Unit test for TopN: same result as OrderBy followed by Limit
+     */
+    @Test
+    public void topN() throws Exception {
+        int[] data = new int[2 * 500];
+        for (int i = 0; i < 500; i++) {
+            data[2 * i] = (i * 37) % 50;
+            data[2 * i + 1] = i;
+        }
+        for (boolean asc : new boolean[]{true, false}) {
+            DbIterator expected = new Limit(20, 0, new OrderBy(0, asc,
+                    TestUtil.createTupleList(2, data)));
+            TopN op = new TopN(0, asc, 20, TestUtil.createTupleList(2, data));
+            expected.open();
+            op.open();
+            TestUtil.compareDbIterators(expected, op);
+            op.rewind();
+            expected.rewind();
+            TestUtil.compareDbIterators(expected, op);
+        }
+    }
+
+    /**
+     * Unit test for Parser.stripLimitClause()
+     */
+    @Test
+    public void parseLimit() throws Exception {
+        Parser p = new Parser();
+        assertEquals("SELECT * FROM t ORDER BY t.a;",
+                p.stripLimitClause("SELECT * FROM t ORDER BY t.a LIMIT 10;"));
+        assertEquals("select * from t;",
+                p.stripLimitClause("select * from t limit 3 offset 4;"));
+        assertEquals("SELECT * FROM t;",
+                p.stripLimitClause("SELECT * FROM t;"));
+        // a LIMIT in a string literal isn't a LIMIT clause
+        assertEquals("SELECT * FROM t WHERE t.s = 'a LIMIT 5;';",
+                p.stripLimitClause("SELECT * FROM t WHERE t.s = 'a LIMIT 5;';"));
+        assertEquals("SELECT * FROM t WHERE t.s = 'LIMIT 5';",
+                p.stripLimitClause("SELECT * FROM t WHERE t.s = 'LIMIT 5' LIMIT 2;"));
+        try {
+            p.stripLimitClause("SELECT * FROM t LIMIT 99999999999;");
+            fail("expected ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A LIMIT and OFFSET whose sum overflows an int still plan and run
+     */
+    @Test
+    public void hugeLimit() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(table, "huge");
+        TransactionId tid = new TransactionId();
+        Map<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("huge", new TableStats(table.getId(), 1));
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM huge h ORDER BY h.c0 LIMIT " + Integer.MAX_VALUE
+                        + " OFFSET 1;");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        assertEquals(9, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
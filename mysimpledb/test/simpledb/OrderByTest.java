@@ -0,0 +1,136 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /**
+     * @return a two column relation with pseudo-random keys in column 0 and
+     * the row number in column 1
+     */
+    private static DbIterator relation(int n) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (int) ((i * 2654435761L) % 1000);
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    /**
+     * Reads all of op, checking that column 0 is sorted and that equal keys
+     * keep their input order, and returns the row numbers read.
+     */
+    private static ArrayList<Integer> checkSorted(DbIterator op, boolean asc)
+            throws Exception {
+        ArrayList<Integer> rows = new ArrayList<Integer>();
+        int lastKey = 0, lastRow = -1;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            int row = ((IntField) t.getField(1)).getValue();
+            if (lastRow >= 0) {
+                assertTrue(asc ? key >= lastKey : key <= lastKey);
+                if (key == lastKey) {
+                    assertTrue(row > lastRow);
+                }
+            }
+            lastKey = key;
+            lastRow = row;
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private void checkSort(int n, int memoryPages, boolean asc, boolean spills)
+            throws Exception {
+        OrderBy op = new OrderBy(0, asc, relation(n), memoryPages);
+        op.open();
+        assertEquals(spills, op.hasSpilled());
+        ArrayList<Integer> rows = checkSorted(op, asc);
+        assertEquals(n, rows.size());
+        Collections.sort(rows);
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, (int) rows.get(i));
+        }
+        op.rewind();
+        assertEquals(n, checkSorted(op, asc).size());
+        op.close();
+    }
+
+    /**
+     * Unit test for OrderBy when the child fits in memory
+     */
+    @Test
+    public void inMemory() throws Exception {
+        checkSort(1000, OrderBy.DEFAULT_MEMORY_PAGES, true, false);
+        checkSort(1000, OrderBy.DEFAULT_MEMORY_PAGES, false, false);
+    }
+
+    /**
+     * Unit test for OrderBy when the child is sorted in runs on disk
+     */
+    @Test
+    public void externalSort() throws Exception {
+        checkSort(5000, 1, true, true);
+        checkSort(5000, 1, false, true);
+    }
+
+    /**
+     * Unit test for OrderBy with more runs than can be merged in one pass
+     */
+    @Test
+    public void multiPassMerge() throws Exception {
+        int runTuples = BufferPool.getPageSize() / Utility.getTupleDesc(2).getSize();
+        checkSort(runTuples * (OrderBy.MAX_FAN_IN + 5), 1, true, true);
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        OrderBy op = new OrderBy(0, true, relation(100), 1);
+        op.open();
+        assertEquals(100, checkSorted(op, true).size());
+        op.close();
+        op.open();
+        assertEquals(100, checkSorted(op, true).size());
+        assertFalse(op.hasNext());
+        op.close();
+    }
+
+    /**
+     * Unit test for OrderBy: opening a spilled sort again without closing it
+     * sorts the child again instead of carrying on with the old runs
+     */
+    @Test
+    public void reopenWithoutClose() throws Exception {
+        OrderBy op = new OrderBy(0, true, relation(5000), 1);
+        op.open();
+        assertTrue(op.hasSpilled());
+        for (int i = 0; i < 100; i++) {
+            op.next();
+        }
+        op.open();
+        assertTrue(op.hasSpilled());
+        assertEquals(5000, checkSorted(op, true).size());
+        op.close();
+        assertFalse(op.hasSpilled());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,102 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageTableTest extends SimpleDbTestBase {
+
+    private HeapPageId[] pids;
+    private Page[] pages;
+
+    @Before
+    public void createPages() throws Exception {
+        Database.getCatalog().addTable(new TestUtil.SkeletonFile(-1, Utility.getTupleDesc(2)),
+                SystemTestUtil.getUUID());
+        pids = new HeapPageId[5];
+        pages = new Page[5];
+        for (int i = 0; i < 5; i++) {
+            pids[i] = new HeapPageId(-1, i);
+            pages[i] = new HeapPage(pids[i], HeapPage.createEmptyPageData());
+        }
+    }
+
+    /**
+     * Unit test for PageTable: pages come out in their order of use, and
+     * the least recently used one is the one to evict
+     */
+    @Test
+    public void orderOfUse() {
+        PageTable table = new PageTable(3);
+        assertTrue(table.isEmpty());
+        assertNull(table.leastRecentlyUsed());
+        for (int i = 0; i < 3; i++) {
+            assertNull(table.put(pids[i], pages[i]));
+        }
+        assertEquals(3, table.size());
+        assertEquals(Arrays.asList(pids[2], pids[1], pids[0]), table.ids());
+        assertEquals(pids[0], table.leastRecentlyUsed());
+
+        assertSame(pages[0], table.use(pids[0]));
+        assertEquals(pids[1], table.leastRecentlyUsed());
+        // get doesn't change the order
+        assertSame(pages[1], table.get(pids[1]));
+        assertEquals(pids[1], table.leastRecentlyUsed());
+        assertNull(table.use(pids[3]));
+        assertFalse(table.contains(pids[3]));
+
+        // replacing a page keeps its place
+        assertSame(pages[1], table.put(pids[1], pages[4]));
+        assertSame(pages[4], table.get(pids[1]));
+        assertEquals(Arrays.asList(pids[0], pids[2], pids[1]), table.ids());
+
+        assertSame(pages[4], table.remove(pids[1]));
+        assertNull(table.remove(pids[1]));
+        assertEquals(pids[2], table.leastRecentlyUsed());
+        assertSame(pages[2], table.remove(pids[2]));
+        assertSame(pages[0], table.remove(pids[0]));
+        assertTrue(table.isEmpty());
+        assertNull(table.leastRecentlyUsed());
+        assertTrue(table.ids().isEmpty());
+    }
+
+    /**
+     * Unit test for PageTable: the table grows past its first capacity, and
+     * reuses the slots of removed pages
+     */
+    @Test
+    public void growAndReuse() {
+        PageTable table = new PageTable(1);
+        for (int i = 0; i < 5; i++) {
+            table.put(pids[i], pages[i]);
+        }
+        assertEquals(5, table.size());
+        assertEquals(Arrays.asList(pids[4], pids[3], pids[2], pids[1], pids[0]), table.ids());
+        for (int i = 0; i < 5; i++) {
+            assertSame(pages[i], table.get(pids[i]));
+        }
+
+        table.remove(pids[2]);
+        table.remove(pids[0]);
+        table.put(pids[0], pages[0]);
+        table.put(pids[2], pages[2]);
+        table.use(pids[1]);
+        assertEquals(Arrays.asList(pids[1], pids[2], pids[0], pids[4], pids[3]), table.ids());
+        assertEquals(pids[3], table.leastRecentlyUsed());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTableTest.class);
+    }
+}
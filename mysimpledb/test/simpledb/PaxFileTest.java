@@ -0,0 +1,239 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[]{"id", "name", "age"});
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String name, int age) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        t.setField(2, new IntField(age));
+        return t;
+    }
+
+    private PaxFile createEmpty() throws IOException {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        PaxFile pf = new PaxFile(f, td);
+        Database.getCatalog().addTable(pf);
+        return pf;
+    }
+
+    private List<String> scan(DbFileIterator it) throws Exception {
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    /**
+     * Unit test for inserts into a PaxFile: the pages hold as many tuples as
+     * heap pages, and the file reads back the same after it is flushed and
+     * reopened
+     */
+    @Test
+    public void insertAndScan() throws Exception {
+        PaxFile pf = createEmpty();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "name" + i, i % 50);
+            expected.add(t.toString());
+            Database.getBufferPool().insertTuple(tid, pf.getId(), t);
+        }
+        int perPage = PaxPage.numSlots(td, BufferPool.getPageSize());
+        assertEquals((1000 + perPage - 1) / perPage, pf.numPages());
+        assertEquals(expected, scan(pf.iterator(tid)));
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tid = new TransactionId();
+        PaxFile reopened = new PaxFile(pf.getFile(), td);
+        Database.getCatalog().addTable(reopened, "reopened");
+        assertEquals(expected, scan(reopened.iterator(tid)));
+
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3));
+        assertEquals(expected.subList(0, 3), scan(reopened.iterator(tid, p)));
+    }
+
+    /**
+     * Unit test for PaxPage: a projected scan decodes only the fields asked
+     * for, deletes zero the slot's values, and the before image is the page
+     * as it was read
+     */
+    @Test
+    public void projectionAndDelete() throws Exception {
+        HeapPageId pid = new HeapPageId(createEmpty().getId(), 0);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        PaxPage page = new PaxPage(pid, empty);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.hasRoom()) {
+            Tuple t = tuple(tuples.size(), "name" + tuples.size(), 7);
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        assertEquals(PaxPage.numSlots(td, BufferPool.getPageSize()), tuples.size());
+
+        PaxPage copy = new PaxPage(pid, page.getPageData());
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10));
+        Iterator<Tuple> it = copy.iterator(p, new int[]{2});
+        for (int i = 10; i < tuples.size(); i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().tupleno());
+            assertEquals(new IntField(7), t.getField(2));
+            // the other fields hold typed placeholders
+            assertEquals(new IntField(-1), t.getField(0));
+            assertEquals(new StringField("", Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+
+        for (int i = 0; i < tuples.size(); i++) {
+            page.deleteTuple(tuples.get(i));
+        }
+        assertEquals(tuples.size(), page.getNumEmptySlots());
+        assertArrayEquals(empty, page.getPageData());
+        assertArrayEquals(empty, page.getBeforeImage().getPageData());
+        assertEquals(tuples.size(), countTuples(copy.getBeforeImage()));
+    }
+
+    /**
+     * Unit test for a projected scan of a PaxFile feeding an OrderBy that
+     * spills: the tuples it writes out include the fields the scan didn't
+     * read
+     */
+    @Test
+    public void projectedScanSpills() throws Exception {
+        PaxFile pf = createEmpty();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, pf.getId(), tuple(i, "name" + i, i % 50));
+        }
+        // read the pages back, so no tuple is decoded yet
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, pf.getId(), "p");
+        ss.setColumns(new int[]{0});
+        OrderBy ob = new OrderBy(0, false, ss, 1);
+        ob.open();
+        for (int i = 999; i >= 0; i--) {
+            assertTrue(ob.hasNext());
+            assertEquals(new IntField(i), ob.next().getField(0));
+        }
+        assertFalse(ob.hasNext());
+        ob.close();
+    }
+
+    private int countTuples(PaxPage page) {
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Unit test for PaxFile.convert(), for choosing the pax format in the
+     * catalog file, and for a planned query that reads only some of the
+     * fields
+     */
+    @Test
+    public void convertAndQuery() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File text = new File(dir, "people.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 100; i++) {
+            w.println(i + ",person" + i + "," + (i % 10));
+        }
+        w.close();
+        File heap = new File(dir, "heap.dat");
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 3,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "heap");
+
+        File pax = new File(dir, "people.dat");
+        assertEquals(hf.numPages(), PaxFile.convert(hf.iterator(tid), td, pax,
+                BufferPool.getPageSize()));
+
+        File catalog = new File(dir, "catalog.txt");
+        w = new PrintWriter(new FileWriter(catalog));
+        w.println("people (id int, name string, age int) pax");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        int tableid = Database.getCatalog().getTableId("people");
+        DbFile f = Database.getCatalog().getDatabaseFile(tableid);
+        assertTrue(f instanceof PaxFile);
+        assertEquals(scan(hf.iterator(tid)), scan(f.iterator(tid)));
+
+        TableStats stats = new TableStats(tableid, 1000);
+        assertEquals(100, stats.estimateTableCardinality(1.0));
+        Map<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put("people", stats);
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(tableid, "p");
+        lp.addFilter("p.age", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("p.id", null);
+        DbIterator plan = lp.physicalPlan(tid, statsMap, false);
+        List<String> ids = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext()) {
+            ids.add(plan.next().getField(0).toString());
+        }
+        plan.close();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 3; i < 100; i += 10) {
+            expected.add(Integer.toString(i));
+        }
+        assertEquals(expected, ids);
+
+        for (File file : dir.listFiles()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,194 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+                new String[]{"id", "name"});
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedFile createEmpty() throws IOException {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        SlottedFile sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf);
+        return sf;
+    }
+
+    private List<String> scan(DbFile f, Predicate p) throws Exception {
+        DbFileIterator it = p == null ? f.iterator(tid) : ((HeapFile) f).iterator(tid, p);
+        List<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        it.close();
+        return result;
+    }
+
+    /**
+     * Unit test for inserts into a SlottedFile: short strings take only the
+     * room they need, and the file reads back the same after it is flushed
+     * and reopened
+     */
+    @Test
+    public void insertAndScan() throws Exception {
+        SlottedFile sf = createEmpty();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "name" + i);
+            expected.add(t.toString());
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        }
+        // a heap page holds 30 of these tuples; a slotted page over 200
+        assertTrue(sf.numPages() <= 5);
+        assertEquals(expected, scan(sf, null));
+
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        tid = new TransactionId();
+        SlottedFile reopened = new SlottedFile(sf.getFile(), td);
+        Database.getCatalog().addTable(reopened, "reopened");
+        assertEquals(sf.numPages(), reopened.numPages());
+        assertEquals(expected, scan(reopened, null));
+
+        Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(3));
+        assertEquals(expected.subList(0, 3), scan(reopened, p));
+    }
+
+    /**
+     * Unit test for SlottedPage deletes: slots are reused, the tuple area is
+     * compacted when it runs into the slot directory, and the before image
+     * is the page as it was read
+     */
+    @Test
+    public void deleteAndCompact() throws Exception {
+        HeapPageId pid = new HeapPageId(createEmpty().getId(), 0);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        SlottedPage page = new SlottedPage(pid, empty);
+        assertTrue(page.hasRoom());
+
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        Tuple t = tuple(0, "a fairly long string to fill the page quickly");
+        while (page.hasRoomFor(t)) {
+            page.insertTuple(t);
+            tuples.add(t);
+            t = tuple(tuples.size(), "a fairly long string to fill the page quickly");
+        }
+        int full = tuples.size();
+        assertFalse(page.hasRoom());
+
+        // free every other tuple, then insert longer ones than fit in any hole
+        for (int i = 0; i < full; i += 2) {
+            page.deleteTuple(tuples.get(i));
+        }
+        String longer = "a longer string, so that it needs the space of two holes or more";
+        int inserted = 0;
+        while (page.hasRoomFor(tuple(0, longer))) {
+            Tuple u = tuple(1000 + inserted, longer);
+            page.insertTuple(u);
+            assertTrue(u.getRecordId().tupleno() < full);
+            inserted++;
+        }
+        assertTrue(inserted > 0);
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> a = page.iterator(), b = copy.iterator();
+        int count = 0;
+        while (a.hasNext()) {
+            assertEquals(a.next().toString(), b.next().toString());
+            count++;
+        }
+        assertFalse(b.hasNext());
+        assertEquals(full / 2 + inserted, count);
+
+        assertArrayEquals(empty, page.getBeforeImage().getPageData());
+        assertFalse(page.getBeforeImage().iterator().hasNext());
+    }
+
+    /**
+     * Unit test for SlottedFile.convert() and for choosing the slotted format
+     * and the page size in the catalog file
+     */
+    @Test
+    public void convertAndLoadSchema() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File text = new File(dir, "people.txt");
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        for (int i = 0; i < 100; i++) {
+            w.println(i + ",person" + i);
+        }
+        w.close();
+        File heap = new File(dir, "heap.dat");
+        HeapFileEncoder.convert(text, heap, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        HeapFile hf = new HeapFile(heap, td);
+        Database.getCatalog().addTable(hf, "heap");
+
+        File slotted = new File(dir, "people.dat");
+        assertEquals(1, SlottedFile.convert(hf.iterator(tid), td, slotted,
+                BufferPool.getPageSize()));
+        assertTrue(slotted.length() < heap.length());
+
+        File catalog = new File(dir, "catalog.txt");
+        w = new PrintWriter(new FileWriter(catalog));
+        w.println("people (id int, name string) slotted");
+        w.println("wide (id int, name string) pagesize=32768");
+        w.close();
+        Database.getCatalog().loadSchema(catalog.getAbsolutePath());
+        assertEquals(32768, Database.getCatalog().getPageSize(
+                Database.getCatalog().getTableId("wide")));
+        DbFile f = Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("people"));
+        assertTrue(f instanceof SlottedFile);
+        assertEquals(scan(hf, null), scan(f, null));
+
+        for (File file : dir.listFiles()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /**
+     * @return an unsorted two column relation with duplicate keys
+     */
+    private static DbIterator relation(int n, int step, int mod) {
+        int[] data = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = (i * step) % mod;
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Checks a SortMergeJoin against a nested-loop Join with the same
+     * predicate, and that its output is sorted on the left join field.
+     */
+    private void checkAgainstJoin(Predicate.Op joinOp) throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, joinOp, 0);
+        Join expectedOp = new Join(pred, relation(40, 7, 13), relation(30, 5, 11));
+        expectedOp.open();
+        ArrayList<String> expected = drain(expectedOp);
+
+        SortMergeJoin op = new SortMergeJoin(pred, relation(40, 7, 13),
+                relation(30, 5, 11));
+        op.open();
+        ArrayList<String> actual = new ArrayList<String>();
+        int last = Integer.MIN_VALUE;
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            actual.add(t.toString());
+        }
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+
+        op.rewind();
+        assertEquals(expected, drain(op));
+    }
+
+    @Test
+    public void eqJoin() throws Exception {
+        checkAgainstJoin(Predicate.Op.EQUALS);
+    }
+
+    @Test
+    public void ltJoin() throws Exception {
+        checkAgainstJoin(Predicate.Op.LESS_THAN);
+    }
+
+    @Test
+    public void lteJoin() throws Exception {
+        checkAgainstJoin(Predicate.Op.LESS_THAN_OR_EQ);
+    }
+
+    @Test
+    public void gtJoin() throws Exception {
+        checkAgainstJoin(Predicate.Op.GREATER_THAN);
+    }
+
+    @Test
+    public void gteJoin() throws Exception {
+        checkAgainstJoin(Predicate.Op.GREATER_THAN_OR_EQ);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.isSortedOn()
+     */
+    @Test
+    public void sortedInputs() throws Exception {
+        DbIterator sorted = new OrderBy(0, true, relation(10, 3, 7));
+        assertTrue(SortMergeJoin.isSortedOn(sorted, 0));
+        assertFalse(SortMergeJoin.isSortedOn(sorted, 1));
+        assertFalse(SortMergeJoin.isSortedOn(new OrderBy(0, false,
+                relation(10, 3, 7)), 0));
+        assertFalse(SortMergeJoin.isSortedOn(relation(10, 3, 7), 0));
+
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, sorted, relation(10, 1, 7));
+        assertTrue(SortMergeJoin.isSortedOn(op, 0));
+        assertTrue(SortMergeJoin.isSortedOn(op, 2));
+        assertFalse(SortMergeJoin.isSortedOn(op, 1));
+
+        op.open();
+        HashEquiJoin expected = new HashEquiJoin(pred, relation(10, 3, 7),
+                relation(10, 1, 7));
+        expected.open();
+        assertEquals(drain(expected), drain(op));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNotEquals() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+        new SortMergeJoin(pred, relation(1, 1, 1), relation(1, 1, 1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
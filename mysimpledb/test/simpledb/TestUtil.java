@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.Assert.*;
 
@@ -214,6 +215,14 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public CompletableFuture<Page> readPageAsync(PageId id) {
+            throw new RuntimeException("not implemented");
+        }
+
+        public CompletableFuture<Page> writePageAsync(Page p) {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
                 throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -228,10 +237,17 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int getPageSize() {
+            return BufferPool.getPageSize();
+        }
+
         public int getId() {
             return tableid;
         }
 
+        public void close() {
+        }
+
         public DbFileIterator iterator(TransactionId tid) {
             return new DbFileIterator() {
 